@@ -2,31 +2,83 @@ package fr.uge.univ_eiffel;
 
 import fr.uge.univ_eiffel.image_processing.ImageUtils;
 import fr.uge.univ_eiffel.image_processing.downscalers.Downscaler;
+import fr.uge.univ_eiffel.image_processing.palette.ColorDistance;
+import fr.uge.univ_eiffel.image_processing.palette.Ditherer;
+import fr.uge.univ_eiffel.image_processing.palette.Palette;
+import fr.uge.univ_eiffel.image_processing.palette.PaletteLut;
+import fr.uge.univ_eiffel.image_processing.palette.PaletteQuantizer;
 import fr.uge.univ_eiffel.payment_methods.PoW.PoWMethod;
+import fr.uge.univ_eiffel.tiling.CatalogSnapshot;
+import fr.uge.univ_eiffel.tiling.IncrementalTiler;
+import fr.uge.univ_eiffel.tiling.PixelMatrix;
+import fr.uge.univ_eiffel.tiling.QuadtreeTiler;
+import fr.uge.univ_eiffel.tiling.StockPool;
+import fr.uge.univ_eiffel.tiling.StreamingTiler;
+import fr.uge.univ_eiffel.tiling.TilingCache;
+import fr.uge.univ_eiffel.tiling.TilingListener;
+import fr.uge.univ_eiffel.tiling.TilingResult;
 
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /** The big class that orchestrates the entire application flow.
  * WARNING: This code is heavily tailored for MY local MariaDB setup.
  * It likely won't run on your machine unless you update 'config.properties to fit your DB' and import the SQL dump.
  * However, a pre-made 'catalog.txt' is included so the C engine can still run without the DB.
- * Fields: The 4 main modules (Client, Inventory, Orderer, Refiller). */
+ * Fields: The 4 main modules (Client, Inventory, Orderer, Refiller), the certificate verifier, the delivery tracker,
+ * the order planner, the optional palette metric and ditherer,
+ * which tiler is used (the C executable by default, the in process Java one, or a process behind pipes), the optional
+ * result cache and the optional cache of factory responses. */
 public class App {
 
     private final FactoryClient client;
     private final InventoryManager inventory;
     private final OrderManager orderer;
     private final PoWMethod refiller;
+    private CertificateVerifier verifier;
+    private final DeliveryTracker tracker;
+    private OrderPlanner planner;
+    private ColorDistance paletteDistance;
+    private Ditherer ditherer;
+    // the Java tiler is opt-in until it is shown to match C_tiler.exe (see docs/README.md)
+    private boolean externalTiler = true;
+    private StreamingTiler streamingTiler;
+    private TilingCache cache;
+    private ResponseCache responses;
 
     static final String INPUT_PATH = "test_imgs_inputs\\";
     static final String OUTPUT_PATH = "test_imgs_outputs\\";
+    static final String LUT_CACHE_PATH = OUTPUT_PATH + "lut_cache";
+    static final int LUT_BITS = 6;
+    static final String PLACEMENTS_PATH = "tiled_quadtree_image.txt";
+    static final String INVOICE_PATH = "order_quadtree.txt";
+    static final double SPOT_CHECK_RATE = 0.02;
+    static final String CATALOG_STAGE = "inventory-catalog";
+    static final int MAX_SHARD_BRICKS = 1000;
 
     private App(FactoryClient client, InventoryManager inventory, OrderManager orderer, PoWMethod refiller) {
         this.client = client;
         this.inventory = inventory;
         this.orderer = orderer;
         this.refiller = refiller;
+        this.verifier = new CertificateVerifier(client, SPOT_CHECK_RATE);
+        this.tracker = new DeliveryTracker(client);
+        shardOrders(OrderPlanner.DEFAULT_DELAY_WEIGHT, OrderPlanner.ShardPolicy.whole(),
+                OrderPlanner.ShardPolicy.byBrickCount(MAX_SHARD_BRICKS));
     }
 
     /** setups the entire app structure from a configuration file.
@@ -35,45 +87,345 @@ public class App {
     public static App initialize(String configFile) throws Exception {
         FactoryClient client = FactoryClient.makeFromProps(configFile);
         InventoryManager inventory = InventoryManager.makeFromProps(configFile);
-        OrderManager orderer = new OrderManager(client, inventory);
+        OrderManager orderer = OrderManager.makeFromProps(configFile, client, inventory);
         PoWMethod refiller = new PoWMethod(client);
 
         return new App(client, inventory, orderer, refiller);
     }
 
+    /** Enables the palette quantization stage: the downscaled image is snapped to the catalog colors before tiling.
+     * Input: The metric used to pick the nearest color, or null to disable the stage.
+     * Output: This App, for chaining. */
+    public App quantizeWith(ColorDistance distance) {
+        this.paletteDistance = distance;
+        return this;
+    }
+
+    /** Dithers the image against the palette instead of snapping each pixel to its nearest color.
+     * Only used when quantization is enabled (see quantizeWith).
+     * Input: The dithering algorithm, or null to go back to plain quantization.
+     * Output: This App, for chaining. */
+    public App ditherWith(Ditherer ditherer) {
+        this.ditherer = ditherer;
+        return this;
+    }
+
+    /** Sets the share of delivered bricks whose certificate is also checked by the factory /verify endpoint, on top
+     * of the local signature check (2% by default).
+     * Input: A rate between 0 and 1 (1 sends every brick to /verify).
+     * Output: This App, for chaining. */
+    public App spotCheckCertificates(double rate) {
+        this.verifier = new CertificateVerifier(client, rate);
+        return this;
+    }
+
+    /** Sets how invoices may be split into several orders built in parallel. Every candidate is quoted and the plan
+     * with the lowest price plus delayWeight credits per second of its longest quoted delay is ordered (by default the
+     * whole invoice and shards of at most 1000 bricks).
+     * Input: The weight of a second of delay and the candidate policies (whole() alone never shards).
+     * Output: This App, for chaining. */
+    public App shardOrders(double delayWeight, OrderPlanner.ShardPolicy... candidates) {
+        this.planner = new OrderPlanner(orderer, tracker, List.of(candidates), OrderPlanner.priceAndDelay(delayWeight));
+        return this;
+    }
+
+    /** Chooses between the C_tiler.exe subprocess (the default) and the in-process Java tiler.
+     * Input: true to use the executable, false for the Java tiler.
+     * Output: This App, for chaining. */
+    public App useExternalTiler(boolean external) {
+        this.externalTiler = external;
+        return this;
+    }
+
+    /** Tiles through a process fed over its stdin and read from its stdout, nothing goes through files.
+     * Takes precedence over useExternalTiler.
+     * Input: The bridge to the tiler process, or null to go back to the file based modes.
+     * Output: This App, for chaining. */
+    public App useStreamingTiler(StreamingTiler tiler) {
+        this.streamingTiler = tiler;
+        return this;
+    }
+
+    /** Reuses the results of identical earlier jobs (same image bytes, settings and catalog/stock version).
+     * Only the file based modes use it.
+     * Input: The cache, or null to always recompute.
+     * Output: This App, for chaining. */
+    public App cacheResults(TilingCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /** Keeps the factory catalog, public key and production stats on disk between runs. The database catalog is
+     * then brought up to date at the start of every run, which costs nothing while the catalog content is unchanged.
+     * Input: The response cache, or null to always ask the factory (and leave the database catalog alone).
+     * Output: This App, for chaining. */
+    public App cacheFactoryResponses(ResponseCache responses) {
+        this.responses = responses;
+        client.cacheResponses(responses);
+        return this;
+    }
+
+    /** Applies the factory catalog to the database, unless its content hash was already applied.
+     * Input: None.
+     * Output: true if the catalog changed (always true without a response cache). */
+    private boolean refreshCatalog() throws Exception {
+        if (responses == null) {
+            return true;
+        }
+        // only refreshes the cached body (and its hash), the tokens are skipped without building a tree
+        client.catalog(reader -> {
+            reader.skipValue();
+            return null;
+        });
+        if (responses.isApplied(CATALOG_STAGE, "/catalog")) {
+            System.out.println("Factory catalog unchanged, database update skipped");
+            return false;
+        }
+        inventory.updateCatalog(client);
+        responses.markApplied(CATALOG_STAGE, "/catalog");
+        System.out.println("Factory catalog applied to the database");
+        return true;
+    }
+
     /** The main pipeline execution.
-     * Steps: Process Image -> Dump DB -> Run C Engine -> Refill Credits -> Buy Bricks.
+     * Steps: Dump DB -> Process Image (and quantize) -> Tile -> Refill Credits -> Buy Bricks.
      * Input: Image paths, scaling method, dimensions, refill amount, and variance threshold.
      * Output: void. */
     public void run(String imagePath, Downscaler method, String imageName, int width, int height, double refillAmount, int threshold) throws Exception {
-        processImage(INPUT_PATH + imagePath, method, imageName, width, height);
+        boolean catalogChanged = refreshCatalog();
+        if (streamingTiler != null) {
+            runStreaming(imagePath, method, imageName, width, height, refillAmount, threshold);
+            inventory.close();
+            return;
+        }
+
+        // the catalog goes first, the quantization stage needs its colors
         exportInventory(INPUT_PATH + "catalog.txt");
-        runCTiler( OUTPUT_PATH + imageName + ".txt", INPUT_PATH + "catalog.txt", threshold);
+
+        String cacheKey = null;
+        String catalogVersion = null;
+        if (cache != null) {
+            Path catalogPath = Path.of(INPUT_PATH + "catalog.txt");
+            CatalogSnapshot snapshot = CatalogSnapshot.parse(catalogPath);
+            // the Java tiler never looks at the stock, its results survive stock changes (see IncrementalTiler)
+            catalogVersion = externalTiler ? TilingCache.catalogVersion(catalogPath) : snapshot.structureVersion();
+            // entries of other versions can never be hit, dropping them early only matters once the catalog changed
+            if (catalogChanged) {
+                int stale = cache.invalidateExcept(catalogVersion);
+                if (stale > 0) {
+                    System.out.println("Catalog changed, " + stale + " cached results dropped");
+                }
+            }
+            cacheKey = TilingCache.key(Path.of(INPUT_PATH + imagePath), method.id(), width, height, threshold, settings(), catalogVersion);
+            Optional<TilingCache.Entry> hit = cache.get(cacheKey);
+            if (hit.isPresent()) {
+                restoreFromCache(hit.get(), imageName);
+                if (!externalTiler) {
+                    updateInvoice(hit.get(), snapshot, catalogPath);
+                }
+                refillAccount(refillAmount);
+                handleOrders(INVOICE_PATH);
+                inventory.close();
+                return;
+            }
+        }
+
+        Palette palette = paletteDistance == null ? null : Palette.fromCatalog(Path.of(INPUT_PATH + "catalog.txt"));
+        BufferedImage image = processImage(INPUT_PATH + imagePath, method, imageName, width, height, palette, true);
+        if (externalTiler) {
+            runCTiler(OUTPUT_PATH + imageName + ".txt", INPUT_PATH + "catalog.txt", threshold);
+            reportTiling(TilingResult.parse(Path.of(PLACEMENTS_PATH), CatalogSnapshot.parse(Path.of(INPUT_PATH + "catalog.txt"))), threshold);
+        } else {
+            runJavaTiler(image, OUTPUT_PATH + imageName + ".txt", INPUT_PATH + "catalog.txt", threshold);
+        }
+        if (cache != null && image != null) {
+            cache.put(cacheKey, catalogVersion, image, Path.of(PLACEMENTS_PATH), Path.of(INVOICE_PATH), Path.of(INPUT_PATH + "catalog.txt"));
+        }
         refillAccount(refillAmount);
-        handleOrders("order_quadtree.txt");
+        handleOrders(INVOICE_PATH);
         inventory.close();
     }
 
+    /** Every setting besides the downscaler, size and threshold that changes the tiling, for the cache key. */
+    private String settings() {
+        return "palette=" + paletteDistance + ";dither=" + ditherer + ";tiler=" + (externalTiler ? "c" : "java");
+    }
+
+    /** Puts a cached job back where a fresh run would have left it: the PNG, the hex matrix and the two tiler files.
+     * Input: The cache entry and the output name of the job.
+     * Output: void. */
+    private void restoreFromCache(TilingCache.Entry entry, String outputName) throws IOException {
+        BufferedImage image = ImageUtils.binaryMatrixToBuffered(entry.matrix().toString());
+        ImageUtils.bufferedToImage(OUTPUT_PATH + outputName + ".png", image);
+        ImageUtils.bufferedToHexMatrix(OUTPUT_PATH + outputName + ".txt", image);
+        Files.copy(entry.placements(), Path.of(PLACEMENTS_PATH), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(entry.invoice(), Path.of(INVOICE_PATH), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Same job found in cache, image processing and tiling skipped");
+    }
+
+    /** Brings the invoice of a cached tiling up to date with the current stock, without tiling again.
+     * Input: The cache entry, the current catalog snapshot and its file.
+     * Output: void (rewrites the invoice file and the entry). */
+    private void updateInvoice(TilingCache.Entry entry, CatalogSnapshot current, Path catalogPath) throws IOException {
+        TilingResult previous = TilingResult.parse(entry.placements(), CatalogSnapshot.parse(entry.catalog()));
+        TilingResult updated = IncrementalTiler.update(previous, current);
+        try (BufferedWriter invoice = Files.newBufferedWriter(Path.of(INVOICE_PATH))) {
+            updated.writeInvoice(invoice);
+        }
+        cache.refresh(entry, Path.of(INVOICE_PATH), catalogPath);
+        System.out.println("Invoice updated to the current stock: " + IncrementalTiler.availabilityChanges(previous, updated)
+                + " kinds of bricks changed availability, " + updated.missingCount() + " bricks missing");
+    }
+
+    /** Same pipeline with the streaming tiler: the catalog stays in memory, the matrix and catalog go to the tiler
+     * stdin, and its records are read back while it runs. Missing bricks are ordered in chunks of MAX_SHARD_BRICKS
+     * as the tiler reports them, so the first orders are placed before the tiling is over. Only the PNG and the
+     * placement list of this job are written, under its own name.
+     * Input: Same as run.
+     * Output: void. */
+    private void runStreaming(String imagePath, Downscaler method, String imageName, int width, int height, double refillAmount, int threshold) throws Exception {
+        StringWriter catalog = new StringWriter();
+        inventory.exportCatalog(catalog);
+        System.out.println("Catalog exported in memory");
+
+        Palette palette = paletteDistance == null ? null : Palette.fromCatalog(new StringReader(catalog.toString()));
+        BufferedImage image = processImage(INPUT_PATH + imagePath, method, imageName, width, height, palette, false);
+        if (image == null) {
+            throw new IllegalStateException("No image to tile");
+        }
+
+        // orders go out while the tiler runs, the credits have to be there first
+        refillAccount(refillAmount);
+
+        StreamedOrders orders = new StreamedOrders();
+        String placementsPath = OUTPUT_PATH + imageName + "_tiled.txt";
+        try (BufferedWriter placements = new BufferedWriter(new FileWriter(placementsPath))) {
+            int placed = streamingTiler.tile(image, catalog.toString(), threshold, new TilingListener() {
+                @Override
+                public void placed(String brick, int x, int y) {
+                    try {
+                        placements.write(brick + "," + x + "," + y + "\n");
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void missing(String brick, int quantity) {
+                    orders.add(brick, quantity);
+                }
+
+                @Override
+                public void log(String line) {
+                    System.out.println("[TILER] " + line);
+                }
+            });
+            System.out.println("[TILER] " + placed + " bricks placed, saved in " + placementsPath);
+            orders.flush();
+        } finally {
+            // chunks already ordered are paid for: their bricks are still stored if the tiling failed
+            orders.shutdown();
+        }
+        orders.await();
+    }
+
+    /** Missing bricks of a streaming job, ordered chunk by chunk while the tiler goes on.
+     * The chunks are ordered one after the other on a single thread, since every order ends with its bricks being
+     * written to the inventory, which is not meant to be shared by several writers.
+     * Fields: The chunk being filled and its size in bricks, the ordering thread and the chunks handed to it. */
+    private final class StreamedOrders {
+        private HashMap<String, Integer> chunk = new HashMap<>();
+        private int bricks;
+        private final ExecutorService ordering = Executors.newSingleThreadExecutor(task -> new Thread(task, "streamed-orders"));
+        private final List<Future<Void>> sent = new ArrayList<>();
+
+        /** Adds missing bricks, ordering the chunk once it is full. Called from the thread reading the tiler. */
+        void add(String brick, int quantity) {
+            chunk.merge(brick.toLowerCase(), quantity, Integer::sum);
+            bricks += quantity;
+            if (bricks >= MAX_SHARD_BRICKS) {
+                flush();
+            }
+        }
+
+        /** Orders what the current chunk holds, if anything. */
+        void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            HashMap<String, Integer> invoice = chunk;
+            System.out.println("Ordering " + bricks + " missing bricks, chunk " + (sent.size() + 1));
+            chunk = new HashMap<>();
+            bricks = 0;
+            sent.add(ordering.submit(() -> {
+                handleOrders(invoice);
+                return null;
+            }));
+        }
+
+        /** No more chunks, the ones sent still run to completion. */
+        void shutdown() {
+            ordering.shutdown();
+        }
+
+        /** Waits for every chunk sent.
+         * Output: void (the exception of the first chunk that failed, once they are all done). */
+        void await() throws Exception {
+            Exception failure = null;
+            for (Future<Void> order : sent) {
+                try {
+                    order.get();
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception c ? c : e;
+                    System.err.println("Order of a chunk failed: " + cause.getMessage());
+                    if (failure == null) {
+                        failure = cause;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
     /** Handles the image downscaling and hex matrix generation.
-     * Input: Source path, algo, output name, and target resolution.
-     * Output: void (Saves PNG and TXT files). */
-    private void processImage(String inputPath,  Downscaler method, String outputName, int inWidth, int outHeight) throws Exception {
+     * Input: Source path, algo, output name, target resolution, the palette to quantize to (null to skip)
+     * and whether the hex matrix file is needed.
+     * Output: The processed image, or null if it failed (the PNG and TXT files are saved too). */
+    private BufferedImage processImage(String inputPath,  Downscaler method, String outputName, int inWidth, int outHeight, Palette palette, boolean writeMatrix) throws Exception {
         try {
             System.out.println("Processing image...");
 
             File input = new File(inputPath);
 
-            BufferedImage src = ImageUtils.imageToBuffered(input);
+            // decodes only as many pixels as the downscaler needs, huge uploads are never fully loaded
+            BufferedImage src = ImageUtils.imageToBuffered(input, method, inWidth, outHeight, null);
             BufferedImage dest = new BufferedImage(inWidth, outHeight, BufferedImage.TYPE_INT_ARGB);
             method.downscale(src, dest);
 
+            if (palette != null) {
+                // built once per catalog content, later runs load it from the cache directory
+                PaletteLut lut = PaletteLut.cached(palette, paletteDistance, LUT_BITS, Path.of(LUT_CACHE_PATH));
+                if (ditherer != null) {
+                    ditherer.dither(dest, lut);
+                } else {
+                    new PaletteQuantizer(lut).quantize(dest);
+                }
+                System.out.println("image quantized to " + palette.size() + " catalog colors");
+            }
+
             ImageUtils.bufferedToImage(OUTPUT_PATH + outputName + ".png", dest);
-            ImageUtils.bufferedToHexMatrix(OUTPUT_PATH + outputName + ".txt", dest);
-            System.out.println("image matrix created in " + outputName + ".txt");
+            if (writeMatrix) {
+                ImageUtils.bufferedToHexMatrix(OUTPUT_PATH + outputName + ".txt", dest);
+                System.out.println("image matrix created in " + outputName + ".txt");
+            }
+            return dest;
 
         } catch (Exception e) {
             System.err.println("Image processing failed:");
             e.printStackTrace();
+            return null;
         }
     }
 
@@ -85,6 +437,32 @@ public class App {
         System.out.println("Catalog exported to catalog.txt");
     }
 
+    /** Tiles the image in process, writing the same two files as the C program.
+     * Input: The processed image (null to read the hex matrix instead), the hex matrix and catalog paths,
+     * plus the variance threshold.
+     * Output: The tiling result. */
+    private TilingResult runJavaTiler(BufferedImage image, String hexMatrixPath, String catalogPath, int threshold) throws IOException {
+        PixelMatrix matrix = image != null ? PixelMatrix.of(image) : PixelMatrix.fromHexMatrix(Path.of(hexMatrixPath));
+        CatalogSnapshot catalog = CatalogSnapshot.parse(Path.of(catalogPath));
+
+        // bands of the image are tiled concurrently, the result is the same as a sequential run
+        TilingResult result = new QuadtreeTiler(threshold)
+                .tileParallel(matrix, catalog, StockPool.of(catalog), ForkJoinPool.commonPool());
+        result.save(Path.of(PLACEMENTS_PATH), Path.of(INVOICE_PATH));
+        reportTiling(result, threshold);
+        return result;
+    }
+
+    /** Prints the statistics of a tiling, whichever tiler produced it.
+     * Input: The tiling (with its catalog) and the variance threshold used.
+     * Output: void. */
+    private void reportTiling(TilingResult result, int threshold) {
+        System.out.println("[TILER] " + result.count() + " bricks placed (threshold " + threshold + ") on "
+                + result.studsWide() + "x" + result.studsHigh() + " studs, " + result.studs() + " covered");
+        System.out.printf("[TILER] Price: %.2f euros%n", result.price());
+        System.out.println("[TILER] TOTAL MISSING BRICKS: " + result.missingCount());
+    }
+
     /** Wakes up the compiled C executable to perform the tiling optimization.
      * Input: Paths to the hex matrix and catalog, plus the variance threshold.
      * Output: The console output from the C program as a String. */
@@ -132,8 +510,14 @@ public class App {
      * Input: Path to the missing bricks file generated by the C program.
      * Output: void (Updates DB with new bricks). */
     private void handleOrders(String invoicePath) throws Exception {
+        handleOrders(orderer.parseInvoice(invoicePath));
+    }
+
+    /** Buys the missing bricks of an invoice and adds them to the inventory.
+     * Input: Brick name to missing quantity (null or empty when nothing is missing).
+     * Output: void (Updates DB with new bricks). */
+    private void handleOrders(HashMap<String, Integer> invoice) throws Exception {
 
-        var invoice = orderer.parseInvoice(invoicePath);
         if (invoice == null || invoice.isEmpty()) {
             System.out.println("No invoice detected. Skipping order.");
             return;
@@ -141,30 +525,49 @@ public class App {
 
         System.out.println("Invoice parsed: " + invoice);
 
-        var quote = orderer.requestQuote(invoice);
-        System.out.println("currently asking confirmation of quote: " + quote);
-
-        orderer.confirmOrder(quote.id());
-
-        OrderManager.Delivery status;
-        do {
-            //we check every 500 millisecs
-            Thread.sleep(500);
-            status = orderer.deliveryStatus(quote.id());
-            System.out.println("pending bricks :" + status.pendingBricks());
-        } while (!status.completed());
-
-        System.out.println("Order completed. Adding bricks...");
+        // every candidate sharding of the invoice is quoted at once, the cheapest plan is ordered
+        OrderPlanner.Plan plan = planner.plan(invoice);
+        System.out.println("currently asking confirmation of quote: " + plan);
 
-        for (Brick brick : status.bricks()) {
-            boolean valid = client.verify(brick.name(), brick.serial(), brick.certificate());
-            boolean added = inventory.add(brick);
+        // bricks are verified and stored as soon as a poll reveals them, while the factory is still building the rest
+        IngestionPipeline pipeline = new IngestionPipeline(verifier, inventory, IngestionPipeline.DEFAULT_BATCH_SIZE);
+        long completed;
+        try {
+            // polls are paced from the quoted delays and the build progress, each one only decodes the new bricks
+            OrderManager.Delivery delivery = await(planner.order(plan, new DeliveryTracker.Listener() {
+                @Override
+                public void delivered(String quoteId, List<Brick> bricks) {
+                    pipeline.submit(bricks);
+                }
 
-            if (valid && added) {
-                System.out.println("Brick " + brick.name() + " added to inventory");
+                @Override
+                public void progress(String quoteId, Map<String, Integer> pendingBricks) {
+                    System.out.println("pending bricks :" + pendingBricks);
+                }
+            }));
+            completed = System.nanoTime();
+            if (delivery.completed()) {
+                System.out.println("Order completed (" + tracker.summary() + "). Finishing the last bricks...");
             } else {
-                System.out.println("Brick " + brick.name() + " failed verification or already exists");
+                System.err.println("Order partially completed (" + tracker.summary() + "), never ordered: "
+                        + delivery.pendingBricks() + ". Finishing the last bricks...");
             }
+        } finally {
+            pipeline.close();
+        }
+        System.out.printf("Inventory up to date %d ms after the last delivery%n", (System.nanoTime() - completed) / 1_000_000);
+        System.out.println(pipeline.report());
+        System.out.println(verifier.summary());
+    }
+
+    /** Waits for a future, throwing the exception it failed with.
+     * Input: The future.
+     * Output: Its value. */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
         }
     }
 }
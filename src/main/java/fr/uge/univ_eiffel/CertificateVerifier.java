@@ -0,0 +1,321 @@
+package fr.uge.univ_eiffel;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/** Checks brick certificates locally with the factory Ed25519 public key instead of one /verify call per brick.
+ * The key is fetched once and kept. The signed message is the brick name immediately followed by its serial (see
+ * signedMessage). The remote /verify stays the authority: a sample of the bricks (the spot-check rate) is also checked
+ * remotely, and so is every brick the local check rejects. When both disagree, the remote answer wins and the
+ * disagreement is reported on stderr, since it means the key was rotated or the message is not built the way the
+ * factory signs it. The key is then fetched again once, and after a second disagreement every brick goes to /verify.
+ * A /verify call that fails (network, timeout, 5xx) is not an answer: it is retried, and never counts as a
+ * disagreement. At most a fixed number of /verify calls are in flight at once, whatever the number of threads verifying.
+ * Fields: The factory client, the spot-check rate, the permits bounding the /verify calls, the cached key, whether
+ * local checks are still trusted, and counters for the summary. */
+public final class CertificateVerifier {
+
+    static final int DEFAULT_REMOTE_CONCURRENCY = 16;
+    // how many bursts a brick /verify does not answer for is sent in, and the pause before the second one
+    static final int REMOTE_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    /** Outcome of a certificate check: genuine, rejected, or never judged because /verify could not be reached. */
+    enum Verdict { VALID, INVALID, UNVERIFIED }
+
+    // DER prefix of an X.509 SubjectPublicKeyInfo holding a raw 32 byte Ed25519 key
+    private static final byte[] ED25519_X509_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+
+    private final FactoryClient client;
+    private final double spotCheckRate;
+    private final Semaphore remoteSlots;
+    private volatile PublicKey key;
+    private volatile boolean trusted = true;
+    private final AtomicInteger refetches = new AtomicInteger();
+    private final ThreadLocal<Signature> signatures = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("Ed25519");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Ed25519 is not available in this JDK", e);
+        }
+    });
+
+    private final AtomicInteger local = new AtomicInteger();
+    private final AtomicInteger remote = new AtomicInteger();
+    private final AtomicInteger disagreements = new AtomicInteger();
+    private final AtomicInteger unreachable = new AtomicInteger();
+
+    /** Input: The factory client (for the key and the remote checks) and the share of bricks also checked remotely,
+     * between 0 (never) and 1 (always).
+     * Output: A new CertificateVerifier, the key is fetched on first use. */
+    public CertificateVerifier(FactoryClient client, double spotCheckRate) {
+        this(client, spotCheckRate, DEFAULT_REMOTE_CONCURRENCY);
+    }
+
+    /** Input: The factory client, the spot-check rate and how many /verify calls may be in flight at once.
+     * Output: A new CertificateVerifier. */
+    public CertificateVerifier(FactoryClient client, double spotCheckRate, int maxRemoteCalls) {
+        if (client == null) {
+            throw new IllegalArgumentException("client cannot be null");
+        }
+        if (spotCheckRate < 0 || spotCheckRate > 1) {
+            throw new IllegalArgumentException("spotCheckRate must be between 0 and 1");
+        }
+        if (maxRemoteCalls < 1) {
+            throw new IllegalArgumentException("maxRemoteCalls must be positive");
+        }
+        this.client = client;
+        this.spotCheckRate = spotCheckRate;
+        this.remoteSlots = new Semaphore(maxRemoteCalls);
+    }
+
+    /** Sends one brick to /verify once a permit is free, the permit is given back when the answer arrives.
+     * Input: The brick.
+     * Output: The factory verdict, failed if /verify could not be reached (see FactoryClient.verifyAsync). */
+    private CompletableFuture<Boolean> verifyRemotely(Brick brick) {
+        remoteSlots.acquireUninterruptibly();
+        try {
+            return client.verifyAsync(brick.name(), brick.serial(), brick.certificate())
+                    .whenComplete((answer, error) -> remoteSlots.release());
+        } catch (RuntimeException e) {
+            remoteSlots.release();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Verifies a whole delivery: signatures are checked in parallel on the common pool, then the sampled and
+     * rejected bricks are checked remotely, all those requests being in flight together. The bricks /verify could not
+     * be reached for are sent again in a later burst, up to REMOTE_ATTEMPTS times. A brick it never answered for keeps
+     * its local verdict if that was valid and is UNVERIFIED otherwise; it is not a disagreement.
+     * Safe to call from many threads at once, the /verify calls stay bounded.
+     * Input: The delivered bricks.
+     * Output: One verdict per brick, in order. */
+    Verdict[] verifyAll(List<Brick> bricks) {
+        boolean[] valid = new boolean[bricks.size()];
+        boolean[] checkRemotely = new boolean[bricks.size()];
+        PublicKey used = trusted && ensureKey() ? key : null;
+        boolean checkedLocally = used != null;
+        if (checkedLocally) {
+            IntStream.range(0, bricks.size()).parallel().forEach(i -> {
+                valid[i] = checkLocally(bricks.get(i), used);
+                checkRemotely[i] = !valid[i] || ThreadLocalRandom.current().nextDouble() < spotCheckRate;
+            });
+            local.addAndGet(bricks.size());
+        } else {
+            Arrays.fill(checkRemotely, true);
+        }
+
+        Boolean[] answers = new Boolean[bricks.size()];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < bricks.size(); i++) {
+            if (checkRemotely[i]) {
+                pending.add(i);
+            }
+        }
+        Throwable failure = null;
+        for (int attempt = 1; !pending.isEmpty() && attempt <= REMOTE_ATTEMPTS; attempt++) {
+            if (attempt > 1 && !pause(RETRY_DELAY_MILLIS * (attempt - 1))) {
+                break;
+            }
+            List<CompletableFuture<Boolean>> calls = new ArrayList<>();
+            for (int i : pending) {
+                calls.add(verifyRemotely(bricks.get(i)));
+            }
+            remote.addAndGet(calls.size());
+            List<Integer> unanswered = new ArrayList<>();
+            for (int k = 0; k < calls.size(); k++) {
+                try {
+                    answers[pending.get(k)] = calls.get(k).join();
+                } catch (CompletionException e) {
+                    unanswered.add(pending.get(k));
+                    failure = e.getCause();
+                }
+            }
+            pending = unanswered;
+        }
+        if (!pending.isEmpty()) {
+            unreachable.addAndGet(pending.size());
+            System.err.println("/verify could not be reached for " + pending.size() + " bricks after " + REMOTE_ATTEMPTS
+                    + " attempts: " + failure.getMessage());
+        }
+
+        Verdict[] verdicts = new Verdict[bricks.size()];
+        boolean disagreed = false;
+        for (int i = 0; i < bricks.size(); i++) {
+            if (answers[i] == null) {
+                // not sampled, or /verify never answered: a local rejection alone is not trusted
+                verdicts[i] = checkedLocally && valid[i] ? Verdict.VALID : Verdict.UNVERIFIED;
+                continue;
+            }
+            boolean answer = answers[i];
+            if (checkedLocally && answer != valid[i]) {
+                // the first one of the delivery is enough to tell what went wrong
+                if (!disagreed) {
+                    reportDisagreement(bricks.get(i), valid[i], answer);
+                }
+                disagreed = true;
+                disagreements.incrementAndGet();
+            }
+            verdicts[i] = answer ? Verdict.VALID : Verdict.INVALID;
+        }
+        if (disagreed) {
+            distrust(used);
+        }
+        return verdicts;
+    }
+
+    /** Waits before sending the unanswered bricks again.
+     * Input: How long, in milliseconds.
+     * Output: false if interrupted (the flag is kept and no more attempts are made). */
+    private static boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Says loudly that the local check and /verify gave different verdicts for a brick.
+     * Input: The brick and both verdicts. */
+    private static void reportDisagreement(Brick brick, boolean local, boolean remote) {
+        System.err.println("WARNING: certificate of brick " + brick.name() + " (serial " + brick.serial() + ") is "
+                + (local ? "valid" : "invalid") + " for the local Ed25519 check over name + serial, but "
+                + (remote ? "valid" : "invalid") + " for /verify");
+    }
+
+    /** Local and remote verdicts differ: the key may have been rotated, so it is fetched again, once.
+     * Disagreements found with a key that was already replaced are ignored, so concurrent checks failing on the same
+     * old key only count once.
+     * Input: The key the local check used. */
+    private synchronized void distrust(PublicKey used) {
+        if (used != key || !trusted) {
+            return;
+        }
+        if (refetches.getAndIncrement() == 0) {
+            System.err.println("Local certificate checks disagree with /verify, fetching the public key again");
+            client.expire("/signature-public-key");
+            key = null;
+        } else {
+            System.err.println("WARNING: local certificate checks still disagree with /verify after fetching the key again,"
+                    + " the signed message is probably not name + serial. Every brick is verified remotely from now on");
+            trusted = false;
+        }
+    }
+
+    /** Fetches the key if it is not cached yet.
+     * Output: false if it cannot be obtained (every brick is then checked remotely). */
+    private synchronized boolean ensureKey() {
+        if (key != null) {
+            return true;
+        }
+        try {
+            key = decodeKey(client.signaturePublicKey());
+            return true;
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            System.err.println("Factory public key unavailable, verifying remotely: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** The message the factory signs for a brick: its name immediately followed by its serial, in UTF-8.
+     * Input: The brick name and serial.
+     * Output: The signed bytes. */
+    static byte[] signedMessage(String name, String serial) {
+        return (name + serial).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Checks a certificate against the signed message of its brick.
+     * Input: The brick and the key to check it with.
+     * Output: true if the signature is valid. */
+    private boolean checkLocally(Brick brick, PublicKey key) {
+        byte[] certificate;
+        try {
+            certificate = decode(brick.certificate());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        try {
+            Signature signature = signatures.get();
+            signature.initVerify(key);
+            signature.update(signedMessage(brick.name(), brick.serial()));
+            return signature.verify(certificate);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /** Reads the key whatever the way the factory serves it: a JSON object holding it, PEM, base64 or hex, either
+     * the raw 32 bytes or an X.509 structure.
+     * Input: The /signature-public-key response.
+     * Output: The Ed25519 public key. */
+    static PublicKey decodeKey(String response) throws GeneralSecurityException {
+        String text = response.trim();
+        if (text.startsWith("{")) {
+            for (var entry : JsonParser.parseString(text).getAsJsonObject().entrySet()) {
+                JsonElement value = entry.getValue();
+                if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isString()) {
+                    text = value.getAsString().trim();
+                    break;
+                }
+            }
+        } else if (text.startsWith("\"")) {
+            text = JsonParser.parseString(text).getAsString().trim();
+        }
+        text = text.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+
+        byte[] bytes = decode(text);
+        if (bytes.length == 32) {
+            byte[] der = new byte[ED25519_X509_PREFIX.length + 32];
+            System.arraycopy(ED25519_X509_PREFIX, 0, der, 0, ED25519_X509_PREFIX.length);
+            System.arraycopy(bytes, 0, der, ED25519_X509_PREFIX.length, 32);
+            bytes = der;
+        }
+        return KeyFactory.getInstance("Ed25519").generatePublic(new X509EncodedKeySpec(bytes));
+    }
+
+    /** Input: Hex or base64 (standard or URL-safe) text.
+     * Output: The bytes (IllegalArgumentException if it is neither). */
+    static byte[] decode(String text) {
+        String trimmed = text.trim();
+        if (trimmed.length() % 2 == 0 && trimmed.matches("[0-9a-fA-F]+")) {
+            byte[] bytes = new byte[trimmed.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(trimmed, 2 * i, 2 * i + 2, 16);
+            }
+            return bytes;
+        }
+        if (trimmed.indexOf('-') >= 0 || trimmed.indexOf('_') >= 0) {
+            return Base64.getUrlDecoder().decode(trimmed);
+        }
+        return Base64.getDecoder().decode(trimmed);
+    }
+
+    /** Input: None.
+     * Output: How many certificates were checked locally and remotely, how often both disagreed, and how many bricks
+     * /verify never answered for. */
+    public String summary() {
+        return local.get() + " certificates checked locally, " + remote.get() + " remotely, "
+                + disagreements.get() + " disagreements, " + unreachable.get() + " unanswered by /verify"
+                + (trusted ? "" : " (local checks disabled)");
+    }
+}
@@ -0,0 +1,120 @@
+package fr.uge.univ_eiffel;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/** Streaming decoder of the /ordering/deliver responses of one order, meant to be reused for every poll.
+ * The built_blocks are read token by token and handed to a consumer as Brick records, no JsonObject tree or list is
+ * built. The serials emitted in earlier polls are remembered: those bricks are skipped (their certificate is not even
+ * materialized when the serial comes first), so a poll only costs the bricks built since the previous one.
+ * Fields: The consumer of the new bricks and the serials already emitted. */
+final class DeliveryDecoder implements FactoryClient.JsonDecoder<DeliveryDecoder.Progress> {
+
+    /** What one poll revealed.
+     * Fields: Whether nothing is pending anymore, how many bricks were new in this poll, how many are built in total,
+     * and the quantities still pending by brick name. */
+    record Progress(boolean completed, int newBricks, int builtBricks, HashMap<String, Integer> pendingBricks) {}
+
+    private final Consumer<Brick> sink;
+    private final Set<String> seen = new HashSet<>();
+
+    /** Input: Where the bricks not seen in earlier polls go, in delivery order.
+     * Output: A new DeliveryDecoder. */
+    DeliveryDecoder(Consumer<Brick> sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("sink cannot be null");
+        }
+        this.sink = sink;
+    }
+
+    /** Decodes one delivery status.
+     * Input: A reader positioned before the response object.
+     * Output: The progress of the order (IOException if pending_blocks is missing or a brick is incomplete). */
+    @Override
+    public Progress decode(JsonReader reader) throws IOException {
+        HashMap<String, Integer> pending = null;
+        int fresh = 0;
+        int built = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "built_blocks" -> {
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        break;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        built++;
+                        if (readBrick(reader)) {
+                            fresh++;
+                        }
+                    }
+                    reader.endArray();
+                }
+                case "pending_blocks" -> {
+                    pending = new HashMap<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        pending.put(reader.nextName(), reader.nextInt());
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (pending == null) {
+            throw new IOException("Delivery status without pending_blocks");
+        }
+        return new Progress(pending.isEmpty(), fresh, built, pending);
+    }
+
+    /** Reads one element of built_blocks, emitting it unless its serial was already seen.
+     * Output: true if it was new. */
+    private boolean readBrick(JsonReader reader) throws IOException {
+        String name = null;
+        String serial = null;
+        String certificate = null;
+        boolean known = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (known || reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (field) {
+                case "name" -> name = reader.nextString();
+                case "serial" -> {
+                    serial = reader.nextString();
+                    known = seen.contains(serial);
+                }
+                case "certificate" -> certificate = reader.nextString();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (known) {
+            return false;
+        }
+        if (name == null || serial == null || certificate == null) {
+            throw new IOException("Incomplete brick in delivery: name=" + name + ", serial=" + serial);
+        }
+        seen.add(serial);
+        sink.accept(new Brick(name, serial, certificate));
+        return true;
+    }
+
+    /** Input: None.
+     * Output: How many distinct bricks were emitted so far. */
+    int emitted() {
+        return seen.size();
+    }
+}
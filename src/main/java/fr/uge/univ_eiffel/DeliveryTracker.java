@@ -0,0 +1,219 @@
+package fr.uge.univ_eiffel;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/** Follows outstanding orders until they are delivered, without a thread blocked per order.
+ * Polls are scheduled on one scheduler thread and sent asynchronously, so hundreds of orders can be tracked at once
+ * with at most one request in flight per order. The first poll comes after a fraction of the quoted delay. While
+ * nothing moves, the interval doubles (up to a ceiling), but it never jumps far past the quoted end of the order. As
+ * soon as pending bricks shrink, it goes back down to the estimated time left at the observed build rate. Every
+ * interval gets some random jitter so orders placed together do not poll in lockstep.
+ * Fields: The scheduler, the function sending one poll, the interval bounds, and the counters for the summary. */
+final class DeliveryTracker implements AutoCloseable {
+
+    static final Duration MIN_INTERVAL = Duration.ofMillis(200);
+    static final Duration MAX_INTERVAL = Duration.ofSeconds(30);
+    static final double JITTER = 0.2;
+    // polls failing in a row before the order is given up
+    static final int MAX_FAILURES = 5;
+
+    /** Receives the progress of the tracked orders, on the HTTP client threads. */
+    interface Listener {
+        /** Bricks built since the previous poll of this order, never called with an empty list. */
+        default void delivered(String quoteId, List<Brick> bricks) {}
+
+        /** Quantities still pending after a poll. */
+        default void progress(String quoteId, Map<String, Integer> pendingBricks) {}
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final BiFunction<String, DeliveryDecoder, CompletableFuture<DeliveryDecoder.Progress>> poll;
+    private final long minNanos;
+    private final long maxNanos;
+    private final AtomicInteger tracked = new AtomicInteger();
+    private final AtomicInteger polls = new AtomicInteger();
+
+    /** Input: The factory client the deliveries are polled from.
+     * Output: A tracker with its own (daemon) scheduler thread. */
+    DeliveryTracker(FactoryClient client) {
+        this(client::deliverAsync, MIN_INTERVAL, MAX_INTERVAL);
+    }
+
+    /** Input: How one poll is sent, and the shortest and longest interval between two polls of an order.
+     * Output: A new DeliveryTracker. */
+    DeliveryTracker(BiFunction<String, DeliveryDecoder, CompletableFuture<DeliveryDecoder.Progress>> poll, Duration minInterval, Duration maxInterval) {
+        if (poll == null) {
+            throw new IllegalArgumentException("poll cannot be null");
+        }
+        if (minInterval.isNegative() || minInterval.isZero() || maxInterval.compareTo(minInterval) < 0) {
+            throw new IllegalArgumentException("intervals must satisfy 0 < min <= max");
+        }
+        this.poll = poll;
+        this.minNanos = minInterval.toNanos();
+        this.maxNanos = maxInterval.toNanos();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "delivery-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Starts following an order. Cancelling the returned future stops the polls.
+     * Input: The quote ID, the delay quoted by the factory and who is told about new bricks and progress.
+     * Output: A future completed with the whole delivery (every brick, in arrival order), or failed with the
+     * IOException of the last poll once MAX_FAILURES polls failed in a row. */
+    CompletableFuture<OrderManager.Delivery> track(String quoteId, Duration quotedDelay, Listener listener) {
+        Order order = new Order(quoteId, quotedDelay, listener == null ? new Listener() {} : listener);
+        tracked.incrementAndGet();
+        order.schedule(order.interval);
+        return order.result;
+    }
+
+    /** One tracked order.
+     * Fields: Its id, listener and result, the decoder remembering its serials, the bricks received, when the
+     * factory expects it done, the current interval, the pending count and time of the previous poll, and the
+     * failures in a row. */
+    private final class Order {
+        private final String quoteId;
+        private final Listener listener;
+        private final CompletableFuture<OrderManager.Delivery> result = new CompletableFuture<>();
+        private final List<Brick> bricks = new ArrayList<>();
+        private final List<Brick> fresh = new ArrayList<>();
+        private final DeliveryDecoder decoder = new DeliveryDecoder(fresh::add);
+        private final long expectedEnd;
+        private long interval;
+        private long lastPending = -1;
+        private long lastPoll;
+        private int failures;
+
+        Order(String quoteId, Duration quotedDelay, Listener listener) {
+            this.quoteId = quoteId;
+            this.listener = listener;
+            long now = System.nanoTime();
+            long delay = Math.max(0, nanos(quotedDelay));
+            this.expectedEnd = now + delay;
+            this.lastPoll = now;
+            // a first look early enough to stream the first bricks, without hammering long orders
+            this.interval = clamp(delay / 8);
+        }
+
+        void schedule(long nanos) {
+            if (result.isDone()) {
+                return;
+            }
+            long jittered = (long) (nanos * (1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+            scheduler.schedule(this::send, Math.max(0, jittered), TimeUnit.NANOSECONDS);
+        }
+
+        private void send() {
+            if (result.isDone()) {
+                return;
+            }
+            polls.incrementAndGet();
+            CompletableFuture<DeliveryDecoder.Progress> answer;
+            try {
+                answer = poll.apply(quoteId, decoder);
+            } catch (RuntimeException e) {
+                answer = CompletableFuture.failedFuture(e);
+            }
+            // a poll answer and the next poll never overlap, so the order state needs no lock
+            answer.whenComplete(this::received);
+        }
+
+        private void received(DeliveryDecoder.Progress progress, Throwable error) {
+            if (error != null) {
+                failed(error);
+                return;
+            }
+            failures = 0;
+            try {
+                if (!fresh.isEmpty()) {
+                    List<Brick> batch = List.copyOf(fresh);
+                    fresh.clear();
+                    bricks.addAll(batch);
+                    listener.delivered(quoteId, batch);
+                }
+                listener.progress(quoteId, progress.pendingBricks());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            if (progress.completed()) {
+                result.complete(new OrderManager.Delivery(true, List.copyOf(bricks), progress.pendingBricks()));
+                return;
+            }
+            schedule(next(progress));
+        }
+
+        /** Interval before the next poll, from the progress since the previous one. */
+        private long next(DeliveryDecoder.Progress progress) {
+            long now = System.nanoTime();
+            long pending = progress.pendingBricks().values().stream().mapToLong(Integer::longValue).sum();
+            if (lastPending >= 0 && pending < lastPending) {
+                // bricks are coming: poll again around the time the rest should be there at this rate
+                double nanosPerBrick = (double) (now - lastPoll) / (lastPending - pending);
+                interval = clamp(Math.min(interval, (long) (nanosPerBrick * pending)));
+            } else {
+                interval = clamp(interval * 2);
+                long untilExpected = expectedEnd - now;
+                if (untilExpected > minNanos) {
+                    interval = Math.min(interval, untilExpected);
+                }
+            }
+            lastPending = pending;
+            lastPoll = now;
+            return interval;
+        }
+
+        private void failed(Throwable error) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (++failures >= MAX_FAILURES) {
+                result.completeExceptionally(cause instanceof IOException ? cause
+                        : new IOException("Tracking of order " + quoteId + " failed", cause));
+                return;
+            }
+            System.err.println("Delivery poll of " + quoteId + " failed (" + failures + "/" + MAX_FAILURES + "): " + cause.getMessage());
+            interval = clamp(interval * 2);
+            schedule(interval);
+        }
+    }
+
+    /** A quoted delay read in the wrong unit can be centuries long, more than a long holds in nanoseconds.
+     * Input: The delay.
+     * Output: It in nanoseconds, Long.MAX_VALUE when it does not fit (it is clamped to MAX_INTERVAL anyway). */
+    static long nanos(Duration delay) {
+        try {
+            return delay.toNanos();
+        } catch (ArithmeticException e) {
+            return delay.isNegative() ? 0 : Long.MAX_VALUE;
+        }
+    }
+
+    private long clamp(long nanos) {
+        return Math.max(minNanos, Math.min(maxNanos, nanos));
+    }
+
+    /** Input: None.
+     * Output: How many orders were tracked and how many polls it took. */
+    String summary() {
+        return tracked.get() + " orders tracked with " + polls.get() + " polls";
+    }
+
+    /** Stops the scheduler, orders still tracked are not polled anymore. */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -3,86 +3,312 @@ package fr.uge.univ_eiffel;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /** Handles HTTP communication with the Lego Factory API.
  * Acts as the bridge between the app and the external server.
- * Fields: API URL, user email, and secret key. */
+ * All calls go through one shared HttpClient (HTTP/2 when the server offers it, connections kept alive and reused),
+ * and every blocking method has a CompletableFuture twin so callers can overlap round trips. Async failures complete
+ * the future with a CompletionException wrapping the IOException the blocking method would throw.
+ * The slow-changing endpoints (catalog, public key, production) can be served from a ResponseCache, and the big
+ * responses (catalog, deliveries) can be decoded straight from the HTTP stream by a JsonDecoder.
+ * Fields: API URL, user email, secret key, the HTTP client, the per-request timeout and the optional response cache. */
 public class FactoryClient {
 
     private static final String BASE_URL = "https://legofactory.plade.org";
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
 
+    private final String baseUrl;
     private final String email;
     private final String apiKey;
     private final Gson gson = new Gson();
+    private final HttpClient http;
+    private final Duration requestTimeout;
+    private volatile ResponseCache responses;
 
-    private FactoryClient(String email, String apiKey) {
+    FactoryClient(String baseUrl, String email, String apiKey, Duration connectTimeout, Duration requestTimeout) {
+        this.baseUrl = baseUrl;
         this.email = email;
         this.apiKey = apiKey;
+        this.requestTimeout = requestTimeout;
+        // factory api sometimes redirects on order completion
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /** Reads a JSON response token by token, without building a String of the body nor a JsonObject tree.
+     * Input: A reader positioned before the top-level value.
+     * Output: Whatever the decoder extracts from it. */
+    @FunctionalInterface
+    public interface JsonDecoder<T> {
+        T decode(JsonReader reader) throws IOException;
+    }
+
+    /** Base of every request: the endpoint, the credentials and the timeout. */
+    private HttpRequest.Builder request(String endpoint) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + endpoint))
+                .timeout(requestTimeout)
+                .header("X-Email", email)
+                .header("X-Secret-Key", apiKey);
+    }
+
+    private HttpRequest getRequest(String endpoint) {
+        return request(endpoint).GET().build();
+    }
+
+    private HttpRequest postRequest(String endpoint, String jsonBody) {
+        return request(endpoint)
+                .header("Content-Type", "application/json")
+                .POST(jsonBody == null || jsonBody.isEmpty()
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    /** Checks the status of a response.
+     * GET only accepts 200, POST accepts 2xx and 3xx to handle redirects gracefully.
+     * Input: The response.
+     * Output: Its body (throws IOException with the body of the error otherwise). */
+    private static String body(HttpResponse<String> response) throws IOException {
+        int status = response.statusCode();
+        String method = response.request().method();
+        String endpoint = response.request().uri().getPath();
+        boolean ok = method.equals("GET") ? status == 200 : status >= 200 && status < 400;
+        if (ok) {
+            return response.body();
+        }
+        String errorMsg = method + " " + endpoint + " failed with status " + status;
+        if (method.equals("POST") && response.body() != null && !response.body().isEmpty()) {
+            errorMsg += " Body: " + response.body();
+        }
+        throw new IOException(errorMsg);
+    }
+
+    /** Sends a request and waits for the checked body. */
+    private String send(HttpRequest request) throws IOException {
+        return body(exchange(request));
+    }
+
+    /** Sends a request and waits for the response, whatever its status. */
+    private HttpResponse<String> exchange(HttpRequest request) throws IOException {
+        return exchange(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    private <T> HttpResponse<T> exchange(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return http.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(request.method() + " " + request.uri().getPath() + " interrupted", e);
+        }
+    }
+
+    /** Sends a request without blocking.
+     * Output: A future of the checked body. */
+    private CompletableFuture<String> sendAsync(HttpRequest request) {
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(response -> {
+                    try {
+                        return body(response);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
     }
 
     /** Helper method to perform a GET request.
      * Input: Endpoint path (e.g. "/ping").
      * Output: Raw response body as a String. */
     private String get(String endpoint) throws IOException {
-        var url = new URL(BASE_URL + endpoint);
-        var connection = (HttpURLConnection) url.openConnection();
+        return send(getRequest(endpoint));
+    }
+
+    /** Same as get, without blocking. */
+    private CompletableFuture<String> getAsync(String endpoint) {
+        return sendAsync(getRequest(endpoint));
+    }
+
+    /** GET whose body is decoded while it is received.
+     * Input: Endpoint path and the decoder.
+     * Output: The decoded value (IOException if the status is not 200 or the JSON is not what the decoder expects). */
+    private <T> T getStream(String endpoint, JsonDecoder<T> decoder) throws IOException {
+        return decode(exchange(getRequest(endpoint), HttpResponse.BodyHandlers.ofInputStream()), decoder);
+    }
+
+    /** Same as getStream without blocking, the body is decoded on the HTTP client threads as it arrives. */
+    private <T> CompletableFuture<T> getStreamAsync(String endpoint, JsonDecoder<T> decoder) {
+        return http.sendAsync(getRequest(endpoint), HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    try {
+                        return decode(response, decoder);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
 
-        connection.setRequestMethod("GET");
-        connection.addRequestProperty("X-Email", email);
-        connection.addRequestProperty("X-Secret-Key", apiKey);
+    private static <T> T decode(HttpResponse<InputStream> response, JsonDecoder<T> decoder) throws IOException {
+        String request = "GET " + response.request().uri().getPath();
+        try (InputStream in = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException(request + " failed with status " + response.statusCode());
+            }
+            return decode(new InputStreamReader(in, StandardCharsets.UTF_8), decoder, request);
+        }
+    }
 
-        int status = connection.getResponseCode();
-        if (status != 200) {
-            throw new IOException("GET " + endpoint + " failed with status " + status);
+    private static <T> T decode(Reader in, JsonDecoder<T> decoder, String request) throws IOException {
+        try {
+            return decoder.decode(new JsonReader(in));
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports a token of the wrong type this way
+            throw new IOException("Unexpected JSON in " + request + ": " + e.getMessage(), e);
         }
+    }
 
-        return new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    /** Serves the slow-changing endpoints through the response cache (see cacheResponses).
+     * Input: The client-side cache, or null to always ask the server.
+     * Output: This client, for chaining. */
+    public FactoryClient cacheResponses(ResponseCache cache) {
+        this.responses = cache;
+        return this;
     }
 
-    /** Helper method to perform a POST request with JSON payload.
-     * handles automatic redirects for 302 status codes.
-     * Input: Endpoint path and JSON string body.
-     * Output: Raw response body as a String. */
-    public String post(String endpoint, String jsonBody) throws IOException {
-        var url = new URL(BASE_URL + endpoint);
-        var connection = (HttpURLConnection) url.openConnection();
+    /** Input: A cached endpoint (e.g. "/catalog").
+     * Output: The SHA-256 of its last response, or null without a cache or before the first call. */
+    public String contentHash(String endpoint) {
+        ResponseCache cache = responses;
+        return cache == null ? null : cache.hash(endpoint);
+    }
 
-        connection.setRequestMethod("POST");
-        connection.setDoOutput(true);
+    /** Makes the next call to a cached endpoint ask the server again (a 304 keeps it cheap).
+     * Input: The endpoint.
+     * Output: void. */
+    public void expire(String endpoint) {
+        ResponseCache cache = responses;
+        if (cache != null) {
+            cache.expire(endpoint);
+        }
+    }
 
-        // factory api sometimes redirects on order completion
-        connection.setInstanceFollowRedirects(true);
-        connection.addRequestProperty("X-Email", email);
-        connection.addRequestProperty("X-Secret-Key", apiKey);
-        connection.addRequestProperty("Content-Type", "application/json");
+    /** GET through the response cache when it keeps the endpoint: a fresh entry is served without any request, a
+     * stale one is revalidated with its ETag / Last-Modified, and if the server cannot be reached the stale body is
+     * served rather than failing.
+     * Input: Endpoint path.
+     * Output: Raw response body as a String. */
+    private String cachedGet(String endpoint) throws IOException {
+        ResponseCache cache = responses;
+        if (cache == null || !cache.caches(endpoint)) {
+            return get(endpoint);
+        }
+        Optional<ResponseCache.Entry> cached = cache.lookup(endpoint);
+        if (cached.isPresent() && cache.isFresh(endpoint, cached.get())) {
+            return cached.get().body();
+        }
+        try {
+            return keep(cache, endpoint, cached, exchange(conditionalRequest(endpoint, cached)));
+        } catch (IOException e) {
+            return stale(endpoint, cached, e);
+        }
+    }
 
-        if (jsonBody != null && !jsonBody.isEmpty()) {
-            connection.getOutputStream().write(jsonBody.getBytes(StandardCharsets.UTF_8));
+    /** Same as cachedGet, without blocking. */
+    private CompletableFuture<String> cachedGetAsync(String endpoint) {
+        ResponseCache cache = responses;
+        if (cache == null || !cache.caches(endpoint)) {
+            return getAsync(endpoint);
+        }
+        Optional<ResponseCache.Entry> cached = cache.lookup(endpoint);
+        if (cached.isPresent() && cache.isFresh(endpoint, cached.get())) {
+            return CompletableFuture.completedFuture(cached.get().body());
         }
+        return http.sendAsync(conditionalRequest(endpoint, cached), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .handle((response, error) -> {
+                    try {
+                        if (error != null) {
+                            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                            throw cause instanceof IOException io ? io : new IOException("GET " + endpoint + " failed", cause);
+                        }
+                        return keep(cache, endpoint, cached, response);
+                    } catch (IOException e) {
+                        try {
+                            return stale(endpoint, cached, e);
+                        } catch (IOException failure) {
+                            throw new CompletionException(failure);
+                        }
+                    }
+                });
+    }
 
-        int status = connection.getResponseCode();
+    private HttpRequest conditionalRequest(String endpoint, Optional<ResponseCache.Entry> cached) {
+        HttpRequest.Builder builder = request(endpoint).GET();
+        cached.ifPresent(entry -> {
+            if (entry.etag() != null) {
+                builder.header("If-None-Match", entry.etag());
+            }
+            if (entry.lastModified() != null) {
+                builder.header("If-Modified-Since", entry.lastModified());
+            }
+        });
+        return builder.build();
+    }
+
+    /** Stores a new body, or only refreshes the stored one on a 304.
+     * Output: The body to serve (IOException if the server refused the request). */
+    private static String keep(ResponseCache cache, String endpoint, Optional<ResponseCache.Entry> cached, HttpResponse<String> response) throws IOException {
+        if (response.statusCode() == 304 && cached.isPresent()) {
+            return cache.revalidated(endpoint, cached.get()).body();
+        }
+        String body = body(response);
+        cache.store(endpoint, body,
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null));
+        return body;
+    }
 
-        // accepts 2xx and 3xx as success to handle redirects gracefully
-        if (status >= 200 && status < 400) {
-            return new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-        } else {
-            // read error stream for better debugging
-            String errorMsg = "POST " + endpoint + " failed with status " + status;
-            try {
-                if (connection.getErrorStream() != null) {
-                    String errContent = new String(connection.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-                    errorMsg += " Body: " + errContent;
-                }
-            } catch (Exception e) { /* ignore */ }
-            throw new IOException(errorMsg);
+    private static String stale(String endpoint, Optional<ResponseCache.Entry> cached, IOException error) throws IOException {
+        if (cached.isEmpty()) {
+            throw error;
         }
+        System.err.println("Factory unreachable, serving the cached " + endpoint + " from " + cached.get().fetched() + ": " + error);
+        return cached.get().body();
+    }
+
+    /** Helper method to perform a POST request with JSON payload.
+     * handles automatic redirects for 302 status codes.
+     * Input: Endpoint path and JSON string body.
+     * Output: Raw response body as a String. */
+    public String post(String endpoint, String jsonBody) throws IOException {
+        return send(postRequest(endpoint, jsonBody));
+    }
+
+    /** Same as post, without blocking. */
+    public CompletableFuture<String> postAsync(String endpoint, String jsonBody) {
+        return sendAsync(postRequest(endpoint, jsonBody));
+    }
+
+    private static JsonObject json(String body) {
+        return JsonParser.parseString(body).getAsJsonObject();
     }
 
     /** Checks connectivity and credentials.
@@ -92,77 +318,139 @@ public class FactoryClient {
         return get("/ping");
     }
 
+    public CompletableFuture<String> pingAsync() {
+        return getAsync("/ping");
+    }
+
     /** Fetches the full list of available bricks and colors.
      * Input: None.
      * Output: JsonObject containing the catalog data. */
     public JsonObject catalog() throws IOException {
-        return JsonParser.parseString(get("/catalog")).getAsJsonObject();
+        return json(cachedGet("/catalog"));
+    }
+
+    public CompletableFuture<JsonObject> catalogAsync() {
+        return cachedGetAsync("/catalog").thenApply(FactoryClient::json);
+    }
+
+    /** Same as catalog, decoded as it is read: from the HTTP stream, or from the cached body with a response cache.
+     * Input: The decoder.
+     * Output: What the decoder extracted. */
+    public <T> T catalog(JsonDecoder<T> decoder) throws IOException {
+        ResponseCache cache = responses;
+        if (cache != null && cache.caches("/catalog")) {
+            return decode(new StringReader(cachedGet("/catalog")), decoder, "GET /catalog");
+        }
+        return getStream("/catalog", decoder);
     }
 
     /** Gets the total production stats from the factory.
      * Input: None.
      * Output: JsonObject with production numbers. */
     public JsonObject production() throws IOException {
-        return JsonParser.parseString(get("/production")).getAsJsonObject();
+        return json(cachedGet("/production"));
+    }
+
+    public CompletableFuture<JsonObject> productionAsync() {
+        return cachedGetAsync("/production").thenApply(FactoryClient::json);
     }
 
     /** Retrieves the public key for verifying brick certificates.
      * Input: None.
      * Output: The Ed25519 public key as a String. */
     public String signaturePublicKey() throws IOException {
-        return get("/signature-public-key");
+        return cachedGet("/signature-public-key");
+    }
+
+    public CompletableFuture<String> signaturePublicKeyAsync() {
+        return cachedGetAsync("/signature-public-key");
     }
 
     /** Checks the current prepaid account balance.
      * Input: None.
      * Output: The balance amount as a double. */
     public double balance() throws IOException {
-        String json = get("/billing/balance");
-        return JsonParser.parseString(json).getAsJsonObject().get("balance").getAsDouble();
+        return json(get("/billing/balance")).get("balance").getAsDouble();
+    }
+
+    public CompletableFuture<Double> balanceAsync() {
+        return getAsync("/billing/balance").thenApply(body -> json(body).get("balance").getAsDouble());
     }
 
     /** Fetches a Proof of Work challenge to refill credits.
      * Input: None.
      * Output: JsonObject containing data_prefix and hash_prefix. */
     public JsonObject billingChallenge() throws IOException {
-        return JsonParser.parseString(get("/billing/challenge")).getAsJsonObject();
+        return json(get("/billing/challenge"));
+    }
+
+    public CompletableFuture<JsonObject> billingChallengeAsync() {
+        return getAsync("/billing/challenge").thenApply(FactoryClient::json);
     }
 
     /** Submits a solved PoW challenge to earn credits.
      * Input: The challenge prefixes and the computed answer.
      * Output: void (throws IOException if rejected). */
     public void billingChallengeAnswer(String dataPrefix, String hashPrefix, String answer) throws IOException {
+        post("/billing/challenge-answer", challengeAnswer(dataPrefix, hashPrefix, answer));
+    }
+
+    public CompletableFuture<Void> billingChallengeAnswerAsync(String dataPrefix, String hashPrefix, String answer) {
+        return postAsync("/billing/challenge-answer", challengeAnswer(dataPrefix, hashPrefix, answer)).thenApply(body -> null);
+    }
+
+    private String challengeAnswer(String dataPrefix, String hashPrefix, String answer) {
         JsonObject payload = new JsonObject();
         payload.addProperty("data_prefix", dataPrefix);
         payload.addProperty("hash_prefix", hashPrefix);
         payload.addProperty("answer", answer);
-
-        post("/billing/challenge-answer", gson.toJson(payload));
+        return gson.toJson(payload);
     }
 
     /** Verifies the authenticity of a brick's certificate.
      * Input: Brick name, serial number, and certificate signature.
      * Output: True if valid, False otherwise. */
     public boolean verify(String name, String serial, String certificate) {
-        JsonObject payload = new JsonObject();
-        payload.addProperty("name", name);
-        payload.addProperty("serial", serial);
-        payload.addProperty("certificate", certificate);
-
         try {
-            post("/verify", gson.toJson(payload));
+            post("/verify", verification(name, serial, certificate));
             return true;
         } catch (IOException e) {
             return false;
         }
     }
 
+    /** Same as verify without blocking, but only an answer of the factory is a verdict: the future completes with
+     * true for a 2xx/3xx status and false for a 4xx one. When the certificate was never judged (network failure,
+     * timeout, 408, 429 or 5xx status) it fails with an IOException instead, so callers can tell it from a rejection. */
+    public CompletableFuture<Boolean> verifyAsync(String name, String serial, String certificate) {
+        return http.sendAsync(postRequest("/verify", verification(name, serial, certificate)),
+                        HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(response -> {
+                    int status = response.statusCode();
+                    if (status == 408 || status == 429 || status >= 500) {
+                        throw new CompletionException(new IOException("POST /verify failed with status " + status));
+                    }
+                    return status < 400;
+                });
+    }
+
+    private String verification(String name, String serial, String certificate) {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("name", name);
+        payload.addProperty("serial", serial);
+        payload.addProperty("certificate", certificate);
+        return gson.toJson(payload);
+    }
+
     /** Sends a shopping list to the factory to get a price quote.
      * Input: JsonObject mapping brick names to quantities.
      * Output: JsonObject containing quote ID and price. */
     public JsonObject requestQuote(JsonObject bricksRequest) throws IOException {
-        String json = post("/ordering/quote-request", gson.toJson(bricksRequest));
-        return JsonParser.parseString(json).getAsJsonObject();
+        return json(post("/ordering/quote-request", gson.toJson(bricksRequest)));
+    }
+
+    public CompletableFuture<JsonObject> requestQuoteAsync(JsonObject bricksRequest) {
+        return postAsync("/ordering/quote-request", gson.toJson(bricksRequest)).thenApply(FactoryClient::json);
     }
 
     /** Confirms a quote and places the order.
@@ -172,15 +460,34 @@ public class FactoryClient {
         post("/ordering/order/" + quoteId, "");
     }
 
+    public CompletableFuture<Void> confirmOrderAsync(String quoteId) {
+        return postAsync("/ordering/order/" + quoteId, "").thenApply(body -> null);
+    }
+
     /** Polls the delivery status of an order.
      * Input: The quote ID.
      * Output: JsonObject with status and list of built bricks. */
     public JsonObject deliver(String quoteId) throws IOException {
-        String json = get("/ordering/deliver/" + quoteId);
-        return JsonParser.parseString(json).getAsJsonObject();
+        return json(get("/ordering/deliver/" + quoteId));
+    }
+
+    public CompletableFuture<JsonObject> deliverAsync(String quoteId) {
+        return getAsync("/ordering/deliver/" + quoteId).thenApply(FactoryClient::json);
+    }
+
+    /** Same as deliver, decoded straight from the HTTP stream (see DeliveryDecoder).
+     * Input: The quote ID and the decoder.
+     * Output: What the decoder extracted. */
+    public <T> T deliver(String quoteId, JsonDecoder<T> decoder) throws IOException {
+        return getStream("/ordering/deliver/" + quoteId, decoder);
+    }
+
+    public <T> CompletableFuture<T> deliverAsync(String quoteId, JsonDecoder<T> decoder) {
+        return getStreamAsync("/ordering/deliver/" + quoteId, decoder);
     }
 
     /** Factory method to create a client from a properties file.
+     * Optional HTTP_CONNECT_TIMEOUT and HTTP_REQUEST_TIMEOUT entries (seconds) override the default timeouts.
      * Input: Filename (e.g., "config.properties").
      * Output: A fully initialized FactoryClient instance. */
     public static FactoryClient makeFromProps(String fileName) {
@@ -202,11 +509,24 @@ public class FactoryClient {
                 throw new RuntimeException("USER_MAIL or API_KEY missing in properties file.");
             }
 
-            return new FactoryClient(email, key);
+            return new FactoryClient(BASE_URL, email, key,
+                    timeout(props, "HTTP_CONNECT_TIMEOUT", DEFAULT_CONNECT_TIMEOUT),
+                    timeout(props, "HTTP_REQUEST_TIMEOUT", DEFAULT_REQUEST_TIMEOUT));
 
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
-}
 
+    private static Duration timeout(Properties props, String name, Duration fallback) {
+        String value = props.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(name + " must be a number of seconds: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package fr.uge.univ_eiffel;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Verifies delivered bricks and stores them in the inventory, both stages running at the same time.
+ * Every submitted batch is verified as a whole on its own thread (a virtual thread when the JDK has them, a bounded
+ * pool otherwise): its signatures are checked in parallel, then its remote checks go out in one burst, the
+ * CertificateVerifier bounding how many /verify calls hit the factory at once. Genuine bricks are handed to a single
+ * writer thread that stores them in batches (InventoryManager.addAll), so network and database waits overlap instead
+ * of adding up. Bricks can be submitted while an order is still being delivered: the serials already submitted are
+ * remembered and skipped, so each brick is verified and stored once however often it shows up. Each brick is still
+ * reported as added, invalid, unverified (/verify could not be reached, its serial is forgotten so it can be submitted
+ * again) or not stored (a batch the database fails on, whatever the exception, only costs its own bricks), and report()
+ * sums up the throughput and the latency of each stage.
+ * Fields: The verifier, the inventory, the batch size, the verifying threads, the queue feeding the writer and the
+ * writer thread, the serials already submitted, plus the counters and stage timings of the report. */
+public final class IngestionPipeline implements AutoCloseable {
+
+    static final int DEFAULT_BATCH_SIZE = 100;
+    // how long the writer waits for more bricks before storing a partial batch
+    private static final long LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /** A genuine brick waiting for the writer, with the time it left the verification stage. */
+    private record Verified(Brick brick, long at) {}
+
+    private static final Verified END = new Verified(null, 0);
+
+    private final CertificateVerifier verifier;
+    private final InventoryManager inventory;
+    private final int batchSize;
+    private final ExecutorService verifiers;
+    private final BlockingQueue<Verified> verified;
+    private final Thread writer;
+    private volatile boolean closed;
+    private final Set<String> ingested = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong start = new AtomicLong();
+    private final AtomicLong end = new AtomicLong();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder added = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder unverified = new LongAdder();
+    private final LongAdder notStored = new LongAdder();
+    private final Stage verification = new Stage();
+    private final Stage queueing = new Stage();
+    private final Stage writing = new Stage();
+
+    /** Input: The verifier, the inventory (only used by the writer thread until close() returns) and the number of
+     * bricks stored per database batch.
+     * Output: A running pipeline, waiting for bricks. */
+    public IngestionPipeline(CertificateVerifier verifier, InventoryManager inventory, int batchSize) {
+        if (verifier == null || inventory == null) {
+            throw new IllegalArgumentException("verifier and inventory cannot be null");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.verifier = verifier;
+        this.inventory = inventory;
+        this.batchSize = batchSize;
+        this.verifiers = newVerifierExecutor(CertificateVerifier.DEFAULT_REMOTE_CONCURRENCY);
+        // bounded, so verification waits for the database instead of piling bricks up in memory
+        this.verified = new ArrayBlockingQueue<>(4 * batchSize);
+        this.writer = new Thread(this::write, "inventory-writer");
+        writer.start();
+    }
+
+    /** One thread per task: virtual threads on JDK 21+, looked up reflectively since the project targets 17, or a
+     * fixed pool of platform threads on older JDKs (the remote checks are bounded anyway).
+     * Input: The pool size used when there are no virtual threads.
+     * Output: The executor. */
+    static ExecutorService newVerifierExecutor(int fallbackThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newFixedThreadPool(fallbackThreads);
+        }
+    }
+
+    /** Queues bricks for verification and storage, returns at once. Can be called as many times as needed, from any
+     * thread; a serial already submitted is skipped. The new bricks of a call are verified together.
+     * Input: The delivered bricks.
+     * Output: void. */
+    public void submit(Collection<Brick> bricks) {
+        if (closed) {
+            throw new IllegalStateException("pipeline already closed");
+        }
+        start.compareAndSet(0, System.nanoTime());
+        List<Brick> fresh = new ArrayList<>(bricks.size());
+        for (Brick brick : bricks) {
+            if (!ingested.add(brick.serial())) {
+                duplicates.increment();
+                continue;
+            }
+            submitted.increment();
+            fresh.add(brick);
+        }
+        if (!fresh.isEmpty()) {
+            verifiers.execute(() -> verify(fresh));
+        }
+    }
+
+    /** Verifies a delivered batch (local checks in parallel, then one burst of remote checks, see
+     * CertificateVerifier.verifyAll) and hands the genuine bricks to the writer.
+     * Input: The bricks, none of them submitted before. */
+    private void verify(List<Brick> bricks) {
+        long begin = System.nanoTime();
+        CertificateVerifier.Verdict[] verdicts;
+        try {
+            verdicts = verifier.verifyAll(bricks);
+        } catch (RuntimeException e) {
+            System.err.println("Could not verify " + bricks.size() + " bricks: " + e.getMessage());
+            verdicts = new CertificateVerifier.Verdict[bricks.size()];
+            Arrays.fill(verdicts, CertificateVerifier.Verdict.UNVERIFIED);
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < bricks.size(); i++) {
+            Brick brick = bricks.get(i);
+            verification.record(now - begin);
+            if (verdicts[i] == CertificateVerifier.Verdict.INVALID) {
+                invalid.increment();
+                System.out.println("Brick " + brick.name() + " failed verification");
+                continue;
+            }
+            if (verdicts[i] == CertificateVerifier.Verdict.UNVERIFIED) {
+                // not judged, so not done either: submitting it again retries it
+                ingested.remove(brick.serial());
+                unverified.increment();
+                System.out.println("Brick " + brick.name() + " could not be verified, not stored");
+                continue;
+            }
+            try {
+                if (!handOff(new Verified(brick, now))) {
+                    notStored.increment();
+                    System.out.println("Brick " + brick.name() + " not stored (the inventory writer stopped)");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                notStored.increment();
+                System.out.println("Brick " + brick.name() + " not stored (interrupted)");
+            }
+        }
+    }
+
+    /** Waits for room in the writer queue, unless the writer thread is gone (nothing would ever take the item).
+     * Input: The item for the writer.
+     * Output: false if it could not be handed over. */
+    private boolean handOff(Verified item) throws InterruptedException {
+        while (!verified.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writer loop: takes a first brick, waits a little for the batch to fill, stores it, until END arrives. */
+    private void write() {
+        List<Verified> batch = new ArrayList<>(batchSize);
+        boolean done = false;
+        try {
+            while (!done) {
+                Verified first = verified.take();
+                if (first == END) {
+                    return;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + LINGER_NANOS;
+                while (batch.size() < batchSize) {
+                    Verified next = verified.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == END) {
+                        done = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                store(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void store(List<Verified> batch) {
+        long begin = System.nanoTime();
+        List<Brick> bricks = new ArrayList<>(batch.size());
+        for (Verified item : batch) {
+            queueing.record(begin - item.at());
+            bricks.add(item.brick());
+        }
+        boolean[] stored;
+        try {
+            stored = inventory.addAll(bricks);
+        } catch (SQLException | RuntimeException e) {
+            // the bricks of this batch are lost, the writer goes on with the next ones
+            System.err.println("Database batch failed: " + e);
+            stored = new boolean[bricks.size()];
+        }
+        writing.record(System.nanoTime() - begin);
+        for (int i = 0; i < stored.length; i++) {
+            if (stored[i]) {
+                added.increment();
+                System.out.println("Brick " + bricks.get(i).name() + " added to inventory");
+            } else {
+                notStored.increment();
+                System.out.println("Brick " + bricks.get(i).name() + " already exists or could not be stored");
+            }
+        }
+    }
+
+    /** Waits for every submitted brick to be verified and stored, then stops the threads. Calling it again does nothing.
+     * Input: None.
+     * Output: void (RuntimeException if interrupted while waiting, the interrupt flag being kept). */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        verifiers.shutdown();
+        try {
+            while (!verifiers.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("still verifying bricks...");
+            }
+            handOff(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while storing the last bricks", e);
+        }
+        end.set(System.nanoTime());
+    }
+
+    /** Input: None.
+     * Output: The outcome counts, the throughput and the average/max latency of verification, of the wait for the
+     * writer, and of each database batch (meant to be read after close()). */
+    public String report() {
+        long count = submitted.sum();
+        long stop = end.get() != 0 ? end.get() : System.nanoTime();
+        double seconds = start.get() == 0 ? 0 : (stop - start.get()) / 1e9;
+        return String.format("%d bricks in %.2f s (%.0f bricks/s): %d added, %d invalid, %d unverified, %d not stored, %d duplicates skipped%n"
+                        + "  verify %s, queue %s, db %s",
+                count, seconds, seconds > 0 ? count / seconds : 0.0, added.sum(), invalid.sum(), unverified.sum(), notStored.sum(), duplicates.sum(),
+                verification, queueing, writing + " over " + writing.count.sum() + " batches");
+    }
+
+    /** Latency of one stage.
+     * Fields: How many times it ran, the total and the longest duration, in nanoseconds. */
+    private static final class Stage {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            long n = count.sum();
+            return String.format("avg %.1f ms max %.1f ms", n == 0 ? 0.0 : total.sum() / 1e6 / n, max.get() / 1e6);
+        }
+    }
+}
@@ -1,23 +1,27 @@
 package fr.uge.univ_eiffel;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
 
 /** Manages the connection to the local database (MariaDB).
  * Handles catalog updates, stock export for C, and inventory insertions.
  * The code is currently adapted to my local MariaDB database, but i left the
  * SQL dump if you wish to try it for yourself.
- * Fields: The active JDBC Connection. */
+ * Fields: The active JDBC Connection and the catalog ids already looked up, by brick kind. */
 public class InventoryManager {
 
     private Connection connection;
+    private final HashMap<String, Integer> catalogIds = new HashMap<>();
 
     private InventoryManager(String url, String user, String password) throws Exception {
         connection = DriverManager.getConnection(url, user, password);
@@ -47,16 +51,16 @@ public class InventoryManager {
      * Output: void (updates DB). */
     public void updateCatalog(FactoryClient fc) throws Exception {
 
-        JsonObject cat = fc.catalog();
-        JsonArray blocks = cat.getAsJsonArray("blocks");
-        JsonArray colors = cat.getAsJsonArray("colors");
+        List<String> blocks = new ArrayList<>();
+        List<String[]> colors = new ArrayList<>();
+        fc.catalog(reader -> readCatalog(reader, blocks, colors));
 
         String query = "INSERT INTO catalog (width, height, holes, name, color_hex, unit_price) VALUES (?, ?, ?, ?, ?, ?)";
 
         try (PreparedStatement insertStmt = connection.prepareStatement(query)) {
 
-            for (JsonElement dim : blocks) {
-                String[] parts = dim.getAsString().split("-");
+            for (String dim : blocks) {
+                String[] parts = dim.split("-");
                 int w = Integer.parseInt(parts[0]);
                 int h = Integer.parseInt(parts[1]);
                 String holes = "-1";
@@ -64,10 +68,9 @@ public class InventoryManager {
                     holes = parts[2];
                 }
 
-                for (JsonElement c : colors) {
-                    JsonObject color = c.getAsJsonObject();
-                    String name = color.get("name").getAsString();
-                    String hex = color.get("hex_code").getAsString();
+                for (String[] color : colors) {
+                    String name = color[0];
+                    String hex = color[1];
 
                     try {
                         insertStmt.setInt(1, w);
@@ -88,6 +91,48 @@ public class InventoryManager {
         }
     }
 
+    /** Streams the /catalog response: only the block sizes and the color names and hex codes are kept.
+     * Input: The reader and the lists to fill.
+     * Output: null (the lists are filled). */
+    private static Void readCatalog(JsonReader reader, List<String> blocks, List<String[]> colors) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "blocks" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        blocks.add(reader.nextString());
+                    }
+                    reader.endArray();
+                }
+                case "colors" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String name = null;
+                        String hex = null;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "name" -> name = reader.nextString();
+                                case "hex_code" -> hex = reader.nextString();
+                                default -> reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        if (name == null || hex == null) {
+                            throw new IOException("Catalog color without name or hex_code");
+                        }
+                        colors.add(new String[] {name, hex});
+                    }
+                    reader.endArray();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return null;
+    }
+
     /** Closes the database connection safely.
      * Input: None.
      * Output: void. */
@@ -106,6 +151,16 @@ public class InventoryManager {
      * Input: File path to write to (without extension).
      * Output: The full filename including extension. */
     public String exportCatalog(String catPath) throws Exception {
+        try (PrintWriter writer = new PrintWriter(catPath)) {
+            exportCatalog(writer);
+        }
+        return catPath + ".txt";
+    }
+
+    /** Same dump as exportCatalog(String), written to any stream (memory, tiler stdin, ...).
+     * Input: The target writer (flushed, not closed).
+     * Output: void. */
+    public void exportCatalog(Writer out) throws Exception {
         String query = "SELECT width, height, holes, color_hex, unit_price, stock FROM catalog_with_stock";
         Statement stmt = connection.createStatement();
         ResultSet result = stmt.executeQuery(query);
@@ -116,22 +171,21 @@ public class InventoryManager {
         int rowCount = result.getRow();
         result.beforeFirst();
 
-        try (PrintWriter writer = new PrintWriter(new PrintWriter(catPath))) {
-            writer.println(rowCount); // first line: number of rows
+        PrintWriter writer = new PrintWriter(out);
+        writer.println(rowCount); // first line: number of rows
 
-            while (result.next()) {
+        while (result.next()) {
 
-                int width = result.getInt("width");
-                int height = result.getInt("height");
-                String holes = result.getString("holes");
-                String hex = result.getString("color_hex");
-                double price = result.getDouble("unit_price");
-                int stock = result.getInt("stock");
+            int width = result.getInt("width");
+            int height = result.getInt("height");
+            String holes = result.getString("holes");
+            String hex = result.getString("color_hex");
+            double price = result.getDouble("unit_price");
+            int stock = result.getInt("stock");
 
-                writer.printf("%d,%d,%s,%s,%.5f,%d%n", width, height, holes, hex, price, stock);
-            }
+            writer.printf("%d,%d,%s,%s,%.5f,%d%n", width, height, holes, hex, price, stock);
         }
-        return catPath + ".txt";
+        writer.flush();
     }
     /** Factory method to create an instance from a properties file.
      * Input: Filename (e.g., "config.properties").
@@ -184,6 +238,72 @@ public class InventoryManager {
      * Input: Brick record (name, serial, certificate).
      * Output: True if successful. */
     public boolean add(Brick brick) throws SQLException {
+        int catalogId = catalogId(brick);
+
+        // Insert the brick into inventory
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_BRICK)) {
+            bind(stmt, brick, catalogId);
+            stmt.executeUpdate();
+        }
+        return true;
+    }
+
+    /** Adds several delivered bricks in one transaction, as a single JDBC batch instead of one round trip per brick.
+     * If the batch is refused (a serial already stored, an unknown brick...), it is rolled back and the bricks are
+     * added one by one, so only the faulty ones are left out.
+     * Input: The bricks to store.
+     * Output: One flag per brick, true if it was inserted. */
+    public boolean[] addAll(List<Brick> bricks) throws SQLException {
+        boolean[] added = new boolean[bricks.size()];
+        if (bricks.isEmpty()) {
+            return added;
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_BRICK)) {
+                for (Brick brick : bricks) {
+                    bind(stmt, brick, catalogId(brick));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            connection.commit();
+            Arrays.fill(added, true);
+            return added;
+        } catch (SQLException | IllegalArgumentException e) {
+            connection.rollback();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        for (int i = 0; i < added.length; i++) {
+            try {
+                added[i] = add(bricks.get(i));
+            } catch (SQLException | IllegalArgumentException e) {
+                System.err.println("Brick " + bricks.get(i).name() + " not stored: " + e.getMessage());
+            }
+        }
+        return added;
+    }
+
+    private static final String INSERT_BRICK = "INSERT INTO inventory (serial_num, catalog_id, certificate, is_used) VALUES (?, ?, ?, ?)";
+
+    private static void bind(PreparedStatement stmt, Brick brick, int catalogId) throws SQLException {
+        stmt.setBytes(1, hexToBytes(brick.serial()));
+        stmt.setInt(2, catalogId);
+        stmt.setBytes(3, hexToBytes(brick.certificate()));
+        stmt.setBoolean(4, false);
+    }
+
+    /** Finds the catalog entry of a brick, each kind of brick is only looked up once.
+     * Input: The brick, named like "1-1/4d4c52" or "1-1-0123/4d4c52".
+     * Output: Its id_catalog (SQLException if the catalog has no such brick). */
+    private int catalogId(Brick brick) throws SQLException {
+        Integer known = catalogIds.get(brick.name());
+        if (known != null) {
+            return known;
+        }
         // Parse the brick name, ex : "1-1/4d4c52" or "1-1-0123/4d4c52"
         String[] parts = brick.name().split("/");
         if (parts.length != 2) {
@@ -204,7 +324,6 @@ public class InventoryManager {
         }
 
         String selectSql = "SELECT id_catalog FROM catalog WHERE width = ? AND height = ? AND holes = ? AND color_hex = ?";
-        Integer catalogId = null;
         try (PreparedStatement stmt = connection.prepareStatement(selectSql)) {
             stmt.setInt(1, width);
             stmt.setInt(2, height);
@@ -212,26 +331,13 @@ public class InventoryManager {
             stmt.setString(4, hex);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    catalogId = rs.getInt("id_catalog");
+                    int catalogId = rs.getInt("id_catalog");
+                    catalogIds.put(brick.name(), catalogId);
+                    return catalogId;
                 } else {
                     throw new SQLException("No matching catalog entry found for brick: " + brick.name());
                 }
             }
         }
-
-        // Insert the brick into inventory
-        String insertSql = "INSERT INTO inventory (serial_num, catalog_id, certificate, is_used) VALUES (?, ?, ?, ?)";
-
-        byte[] certBytes = hexToBytes(brick.certificate());
-        byte[] serialBytes = hexToBytes(brick.serial());
-
-        try (PreparedStatement stmt = connection.prepareStatement(insertSql)) {
-            stmt.setBytes(1, serialBytes);
-            stmt.setInt(2, catalogId);
-            stmt.setBytes(3, certBytes);
-            stmt.setBoolean(4, false);
-            stmt.executeUpdate();
-        }
-        return true;
     }
 }
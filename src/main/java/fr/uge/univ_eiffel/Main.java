@@ -1,12 +1,22 @@
 package fr.uge.univ_eiffel;
 
-import fr.uge.univ_eiffel.image_processing.downscalers.BicubicInterpolator;
+import fr.uge.univ_eiffel.image_processing.downscalers.ParallelDownscaler;
+import fr.uge.univ_eiffel.image_processing.downscalers.ResamplingKernel;
+import fr.uge.univ_eiffel.image_processing.downscalers.SeparableResampler;
+import fr.uge.univ_eiffel.image_processing.palette.ColorDistance;
+import fr.uge.univ_eiffel.image_processing.palette.ErrorDiffusionDitherer;
+import fr.uge.univ_eiffel.tiling.TilingCache;
+
+import java.nio.file.Path;
 
 public class Main {
     public static void main(String[] args) throws Exception {
 
-        App app = App.initialize("config.properties");
-        app.run("mcdo.png", new BicubicInterpolator(), "french-downscaled",256,192,2000, 1);
+        App app = App.initialize("config.properties").quantizeWith(ColorDistance.CIELAB)
+                .ditherWith(new ErrorDiffusionDitherer(ErrorDiffusionDitherer.Kernel.FLOYD_STEINBERG))
+                .cacheResults(new TilingCache(Path.of("test_imgs_outputs", "cache"), 256L << 20))
+                .cacheFactoryResponses(new ResponseCache(Path.of("test_imgs_outputs", "factory_cache")));
+        app.run("mcdo.png", new ParallelDownscaler(new SeparableResampler(ResamplingKernel.CATMULL_ROM)), "french-downscaled",256,192,2000, 1);
     }
 }
 
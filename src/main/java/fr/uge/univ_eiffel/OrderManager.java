@@ -6,21 +6,78 @@ import com.google.gson.JsonObject;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 public class OrderManager {
+    /** Unit of the delay of the factory quotes, unless QUOTE_DELAY_UNIT says otherwise. */
+    static final ChronoUnit DEFAULT_DELAY_UNIT = ChronoUnit.SECONDS;
+
     private final FactoryClient client;
     private final InventoryManager inventory;
+    private final ChronoUnit delayUnit;
     private final Gson gson = new Gson();
 
-    record Quote (String id, double price, long delay) {}
+    /** A quote, its delay stored as the factory sent it.
+     * Fields: The quote ID, the price, the delay and the unit it is given in. */
+    record Quote (String id, double price, long delay, ChronoUnit delayUnit) {
+
+        /** Output: How long the factory expects the order to take (the longest Duration if it does not fit one). */
+        Duration expectedDelay() {
+            try {
+                return Duration.of(Math.max(0, delay), delayUnit);
+            } catch (ArithmeticException e) {
+                return Duration.ofSeconds(Long.MAX_VALUE, 999_999_999);
+            }
+        }
+    }
     record Delivery (boolean completed, List<Brick> bricks, HashMap<String, Integer> pendingBricks) {}
 
     public OrderManager(FactoryClient client, InventoryManager inventory) {
+        this(client, inventory, DEFAULT_DELAY_UNIT);
+    }
+
+    /** Input: The factory client, the inventory and the unit of the delay field of the quotes (e.g. SECONDS).
+     * Output: A new OrderManager. */
+    public OrderManager(FactoryClient client, InventoryManager inventory, ChronoUnit delayUnit) {
+        if (delayUnit == null || delayUnit.isDurationEstimated()) {
+            throw new IllegalArgumentException("the delay unit must be an exact unit, like SECONDS or MILLIS");
+        }
         this.client = client;
         this.inventory = inventory;
+        this.delayUnit = delayUnit;
+    }
+
+    /** Builds an OrderManager whose quote delay unit comes from the optional QUOTE_DELAY_UNIT property (a ChronoUnit
+     * name such as SECONDS, MILLIS or NANOS), seconds when it is absent.
+     * Input: The properties file name, the factory client and the inventory.
+     * Output: A new OrderManager. */
+    public static OrderManager makeFromProps(String fileName, FactoryClient client, InventoryManager inventory) {
+        Properties props = new Properties();
+        try (InputStream input = OrderManager.class.getClassLoader().getResourceAsStream(fileName)) {
+            if (input == null) {
+                throw new RuntimeException("Properties file '" + fileName + "' not found.");
+            }
+            props.load(input);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        String unit = props.getProperty("QUOTE_DELAY_UNIT");
+        if (unit == null || unit.isBlank()) {
+            return new OrderManager(client, inventory);
+        }
+        try {
+            return new OrderManager(client, inventory, ChronoUnit.valueOf(unit.trim().toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("QUOTE_DELAY_UNIT must be an exact ChronoUnit name like SECONDS: " + unit, e);
+        }
     }
 
     public HashMap<String, Integer> parseInvoice(String invoicePath) {
@@ -55,17 +112,28 @@ public class OrderManager {
     }
 
     public Quote requestQuote(HashMap<String, Integer> bricks) throws IOException {
+        return quote(client.requestQuote(quoteRequest(bricks)));
+    }
 
+    /** Same as requestQuote without blocking, so several quotes can be asked for at once. */
+    public CompletableFuture<Quote> requestQuoteAsync(Map<String, Integer> bricks) {
+        return client.requestQuoteAsync(quoteRequest(bricks)).thenApply(this::quote);
+    }
+
+    private static JsonObject quoteRequest(Map<String, Integer> bricks) {
         JsonObject req = new JsonObject();
-        for (HashMap.Entry<String, Integer> entry : bricks.entrySet()) {
+        for (Map.Entry<String, Integer> entry : bricks.entrySet()) {
             req.addProperty(entry.getKey(), entry.getValue());
         }
-        JsonObject res = client.requestQuote(req);
+        return req;
+    }
 
+    private Quote quote(JsonObject res) {
         return new Quote(
                 res.get("id").getAsString(),
                 res.get("price").getAsDouble(),
-                res.get("delay").getAsLong()
+                res.get("delay").getAsLong(),
+                delayUnit
         );
     }
 
@@ -73,28 +141,17 @@ public class OrderManager {
         client.confirmOrder(id);
     }
 
-    public Delivery deliveryStatus(String id) throws IOException {
-
-        JsonObject res = client.deliver(id);
-        boolean completed = res.getAsJsonObject("pending_blocks").size() == 0;
+    public CompletableFuture<Void> confirmOrderAsync(String id) {
+        return client.confirmOrderAsync(id);
+    }
 
+    /** Reads the whole delivery status of an order, every built brick included.
+     * Input: The quote ID.
+     * Output: The Delivery. */
+    public Delivery deliveryStatus(String id) throws IOException {
         List<Brick> built = new ArrayList<>();
-        if (res.has("built_blocks") && !res.get("built_blocks").isJsonNull()) {
-            for (var elem : res.getAsJsonArray("built_blocks")) {
-                var o = elem.getAsJsonObject();
-                built.add(new Brick(
-                        o.get("name").getAsString(),
-                        o.get("serial").getAsString(),
-                        o.get("certificate").getAsString())
-                );
-            }
-        }
-        HashMap<String, Integer> pending = new HashMap<>();
-        JsonObject pendJson = res.getAsJsonObject("pending_blocks");
-        for (String key : pendJson.keySet()) {
-            pending.put(key, pendJson.get(key).getAsInt());
-        }
-        return new Delivery(completed, built, pending);
+        DeliveryDecoder.Progress progress = client.deliver(id, new DeliveryDecoder(built::add));
+        return new Delivery(progress.completed(), built, progress.pendingBricks());
     }
 
 }
@@ -0,0 +1,261 @@
+package fr.uge.univ_eiffel;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.ToDoubleFunction;
+
+/** Splits a big invoice into several orders built in parallel by the factory, instead of one order whose bricks all
+ * come through a single delivery.
+ * Every candidate ShardPolicy cuts the invoice its own way, the quotes of all the shards of all the candidates are
+ * requested at once, and the plan with the lowest cost (by default the total price plus a weight per second of the
+ * longest quoted delay, since the shards are built at the same time) wins. Its quotes are then confirmed in parallel and the deliveries tracked together, as one delivery.
+ * Fields: The order manager, the delivery tracker, the candidate policies and the cost of a plan. */
+public final class OrderPlanner {
+
+    /** Credits one second of waiting is worth in the default cost: a shard pays for itself as soon as it saves more
+     * seconds than the credits its extra order costs. */
+    public static final double DEFAULT_DELAY_WEIGHT = 1.0;
+
+    /** How an invoice is cut into shards, each shard becoming one quote and one order. */
+    public interface ShardPolicy {
+        /** Input: The invoice, brick name to quantity.
+         * Output: The shards, every brick of the invoice being in exactly one of them. */
+        List<HashMap<String, Integer>> shard(Map<String, Integer> invoice);
+
+        /** The whole invoice as one order, like before. */
+        static ShardPolicy whole() {
+            return invoice -> List.of(new HashMap<>(invoice));
+        }
+
+        /** Shards of at most maxBricks bricks, as even as possible (a big quantity is split across shards).
+         * Input: The largest shard, in bricks. */
+        static ShardPolicy byBrickCount(int maxBricks) {
+            if (maxBricks < 1) {
+                throw new IllegalArgumentException("maxBricks must be positive");
+            }
+            return invoice -> {
+                long total = invoice.values().stream().mapToLong(Integer::longValue).sum();
+                int count = (int) Math.max(1, (total + maxBricks - 1) / maxBricks);
+                long target = (total + count - 1) / count;
+                List<HashMap<String, Integer>> shards = new ArrayList<>();
+                HashMap<String, Integer> shard = new HashMap<>();
+                long size = 0;
+                for (Map.Entry<String, Integer> entry : new TreeMap<>(invoice).entrySet()) {
+                    int left = entry.getValue();
+                    while (left > 0) {
+                        int taken = (int) Math.min(left, target - size);
+                        shard.merge(entry.getKey(), taken, Integer::sum);
+                        left -= taken;
+                        size += taken;
+                        if (size == target) {
+                            shards.add(shard);
+                            shard = new HashMap<>();
+                            size = 0;
+                        }
+                    }
+                }
+                if (!shard.isEmpty()) {
+                    shards.add(shard);
+                }
+                return shards;
+            };
+        }
+
+        /** Shards of at most kindsPerShard kinds of bricks, a kind never being split.
+         * Input: The number of brick types per shard. */
+        static ShardPolicy byBrickType(int kindsPerShard) {
+            if (kindsPerShard < 1) {
+                throw new IllegalArgumentException("kindsPerShard must be positive");
+            }
+            return invoice -> {
+                List<HashMap<String, Integer>> shards = new ArrayList<>();
+                HashMap<String, Integer> shard = new HashMap<>();
+                for (Map.Entry<String, Integer> entry : new TreeMap<>(invoice).entrySet()) {
+                    shard.put(entry.getKey(), entry.getValue());
+                    if (shard.size() == kindsPerShard) {
+                        shards.add(shard);
+                        shard = new HashMap<>();
+                    }
+                }
+                if (!shard.isEmpty()) {
+                    shards.add(shard);
+                }
+                return shards;
+            };
+        }
+    }
+
+    /** One way of ordering the invoice, with the quotes the factory gave for it.
+     * Fields: The shards and their quotes, in the same order. */
+    public record Plan(List<HashMap<String, Integer>> shards, List<OrderManager.Quote> quotes) {
+
+        public double price() {
+            return quotes.stream().mapToDouble(OrderManager.Quote::price).sum();
+        }
+
+        /** Sum of the quoted delays (what priceAndTotalDelay weighs). */
+        public Duration totalDelay() {
+            return quotes.stream().map(OrderManager.Quote::expectedDelay).reduce(Duration.ZERO, Duration::plus);
+        }
+
+        /** Longest quoted delay, when the shards are expected to be done since they are built in parallel (what the
+         * default cost weighs). */
+        public Duration longestDelay() {
+            return quotes.stream().map(OrderManager.Quote::expectedDelay).max(Duration::compareTo).orElse(Duration.ZERO);
+        }
+
+        @Override
+        public String toString() {
+            return quotes.size() + " order(s) for " + String.format("%.2f", price()) + " credits, expected within "
+                    + longestDelay().toSeconds() + " s";
+        }
+    }
+
+    private final OrderManager orderer;
+    private final DeliveryTracker tracker;
+    private final List<ShardPolicy> candidates;
+    private final ToDoubleFunction<Plan> cost;
+
+    /** Input: The order manager, the tracker following the deliveries, the candidate policies (at least one) and the
+     * cost to minimize.
+     * Output: A new OrderPlanner. */
+    OrderPlanner(OrderManager orderer, DeliveryTracker tracker, List<ShardPolicy> candidates, ToDoubleFunction<Plan> cost) {
+        if (orderer == null || tracker == null || cost == null) {
+            throw new IllegalArgumentException("orderer, tracker and cost cannot be null");
+        }
+        if (candidates == null || candidates.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard policy is needed");
+        }
+        this.orderer = orderer;
+        this.tracker = tracker;
+        this.candidates = List.copyOf(candidates);
+        this.cost = cost;
+    }
+
+    /** The default cost: total price plus a weight per second of the longest quoted delay, the time the whole plan
+     * is waited for.
+     * Input: The credits one second of delay is worth.
+     * Output: The cost function. */
+    public static ToDoubleFunction<Plan> priceAndDelay(double delayWeight) {
+        return plan -> plan.price() + delayWeight * seconds(plan.longestDelay());
+    }
+
+    /** Total price plus a weight per second of summed quoted delay, for a factory that builds one order at a time
+     * (sharding then never saves time).
+     * Input: The credits one second of delay is worth.
+     * Output: The cost function. */
+    public static ToDoubleFunction<Plan> priceAndTotalDelay(double delayWeight) {
+        return plan -> plan.price() + delayWeight * seconds(plan.totalDelay());
+    }
+
+    private static double seconds(Duration delay) {
+        return delay.getSeconds() + delay.getNano() / 1e9;
+    }
+
+    /** Quotes every candidate at once and keeps the cheapest (candidates cutting the invoice the same way are only
+     * quoted once). Nothing is ordered yet.
+     * Input: The invoice.
+     * Output: The chosen plan (IOException if no candidate could be quoted). */
+    Plan plan(Map<String, Integer> invoice) throws IOException {
+        Map<List<HashMap<String, Integer>>, List<CompletableFuture<OrderManager.Quote>>> asked = new LinkedHashMap<>();
+        for (ShardPolicy policy : candidates) {
+            List<HashMap<String, Integer>> shards = policy.shard(invoice);
+            asked.computeIfAbsent(shards, s -> s.stream().map(orderer::requestQuoteAsync).toList());
+        }
+
+        Plan best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        IOException failure = null;
+        for (var entry : asked.entrySet()) {
+            List<OrderManager.Quote> quotes = new ArrayList<>();
+            try {
+                for (CompletableFuture<OrderManager.Quote> quote : entry.getValue()) {
+                    quotes.add(quote.join());
+                }
+            } catch (CompletionException e) {
+                failure = new IOException("Quote of a " + entry.getKey().size() + " shard plan failed", e.getCause());
+                continue;
+            }
+            Plan plan = new Plan(entry.getKey(), quotes);
+            double planCost = cost.applyAsDouble(plan);
+            System.out.println("  " + plan + ", cost " + String.format("%.2f", planCost));
+            if (planCost < bestCost) {
+                best = plan;
+                bestCost = planCost;
+            }
+        }
+        if (best == null) {
+            throw failure;
+        }
+        return best;
+    }
+
+    /** Confirms every quote of a plan in parallel and follows the deliveries together. A shard whose confirmation
+     * fails is reported and left out, the confirmed ones are paid for and still tracked, and the quantities of the
+     * shards left out come back as the pending bricks of an uncompleted delivery.
+     * Input: The plan and who is told about the bricks and progress (delivered is called per shard, progress with the
+     * pending quantities of all shards merged, under the id of the first quote).
+     * Output: One delivery gathering every confirmed shard, once they all are done (failed if any shard failed,
+     * after the others are done), IOException if no order could be confirmed. */
+    CompletableFuture<OrderManager.Delivery> order(Plan plan, DeliveryTracker.Listener listener) throws IOException {
+        List<CompletableFuture<Void>> confirmations = plan.quotes().stream()
+                .map(quote -> orderer.confirmOrderAsync(quote.id()))
+                .toList();
+        List<OrderManager.Quote> confirmed = new ArrayList<>();
+        HashMap<String, Integer> unconfirmed = new HashMap<>();
+        Throwable failure = null;
+        for (int i = 0; i < confirmations.size(); i++) {
+            try {
+                confirmations.get(i).join();
+                confirmed.add(plan.quotes().get(i));
+            } catch (CompletionException e) {
+                failure = e.getCause();
+                System.err.println("Order " + plan.quotes().get(i).id() + " not confirmed, its bricks "
+                        + plan.shards().get(i) + " will be missing: " + failure.getMessage());
+                plan.shards().get(i).forEach((name, count) -> unconfirmed.merge(name, count, Integer::sum));
+            }
+        }
+        if (confirmed.isEmpty()) {
+            throw new IOException("No order of the plan could be confirmed", failure);
+        }
+
+        DeliveryTracker.Listener target = listener == null ? new DeliveryTracker.Listener() {} : listener;
+        String planId = confirmed.get(0).id();
+        Map<String, Map<String, Integer>> pending = new HashMap<>();
+        DeliveryTracker.Listener merged = new DeliveryTracker.Listener() {
+            @Override
+            public void delivered(String quoteId, List<Brick> bricks) {
+                target.delivered(quoteId, bricks);
+            }
+
+            @Override
+            public void progress(String quoteId, Map<String, Integer> pendingBricks) {
+                Map<String, Integer> all = new HashMap<>();
+                synchronized (pending) {
+                    pending.put(quoteId, pendingBricks);
+                    pending.values().forEach(shard -> shard.forEach((name, count) -> all.merge(name, count, Integer::sum)));
+                }
+                target.progress(planId, all);
+            }
+        };
+
+        List<CompletableFuture<OrderManager.Delivery>> deliveries = confirmed.stream()
+                .map(quote -> tracker.track(quote.id(), quote.expectedDelay(), merged))
+                .toList();
+        return CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<Brick> bricks = new ArrayList<>();
+            for (CompletableFuture<OrderManager.Delivery> delivery : deliveries) {
+                bricks.addAll(delivery.join().bricks());
+            }
+            return new OrderManager.Delivery(unconfirmed.isEmpty(), bricks, unconfirmed);
+        });
+    }
+}
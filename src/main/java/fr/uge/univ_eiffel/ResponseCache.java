@@ -0,0 +1,206 @@
+package fr.uge.univ_eiffel;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/** Disk cache of the factory responses that rarely change (/catalog, /signature-public-key, /production), so a run
+ * does not download them again. Each endpoint has its own time to live: within it the stored body is served as is,
+ * past it FactoryClient asks the server again with If-None-Match / If-Modified-Since and a 304 only refreshes the
+ * timestamp. Every body comes with the SHA-256 of its content, which later stages compare with the hash they last
+ * applied (see markApplied) to skip work when nothing changed.
+ * Fields: The cache directory, the time to live of each cached endpoint and the entries already loaded. */
+public final class ResponseCache {
+
+    static final Duration CATALOG_TTL = Duration.ofHours(6);
+    static final Duration PUBLIC_KEY_TTL = Duration.ofDays(1);
+    static final Duration PRODUCTION_TTL = Duration.ofMinutes(5);
+
+    private final Path directory;
+    private final Map<String, Duration> ttls = new HashMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /** One stored response.
+     * Fields: The body, the validators sent back by the server (null when absent), when it was last confirmed and the
+     * hex SHA-256 of the body. */
+    public record Entry(String body, String etag, String lastModified, Instant fetched, String hash) {}
+
+    /** Caches the three slow-changing endpoints with the default times to live (6 h, 1 day and 5 min).
+     * Input: The directory holding the entries (created if needed).
+     * Output: A new ResponseCache. */
+    public ResponseCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        ttls.put("/catalog", CATALOG_TTL);
+        ttls.put("/signature-public-key", PUBLIC_KEY_TTL);
+        ttls.put("/production", PRODUCTION_TTL);
+    }
+
+    /** Changes how long the response of an endpoint is served without asking the server.
+     * Input: The endpoint (e.g. "/catalog") and its time to live (zero to revalidate on every call).
+     * Output: This cache, for chaining. */
+    public synchronized ResponseCache ttl(String endpoint, Duration ttl) {
+        if (ttl == null || ttl.isNegative()) {
+            throw new IllegalArgumentException("ttl must be zero or positive");
+        }
+        ttls.put(endpoint, ttl);
+        return this;
+    }
+
+    /** Input: An endpoint.
+     * Output: true if its responses are kept by this cache. */
+    public synchronized boolean caches(String endpoint) {
+        return ttls.containsKey(endpoint);
+    }
+
+    /** Input: An endpoint.
+     * Output: Its stored response, from memory or disk, however old it is. */
+    public synchronized Optional<Entry> lookup(String endpoint) {
+        Entry entry = entries.get(endpoint);
+        if (entry == null) {
+            entry = load(endpoint);
+            if (entry != null) {
+                entries.put(endpoint, entry);
+            }
+        }
+        return Optional.ofNullable(entry);
+    }
+
+    /** Input: An endpoint and its stored response.
+     * Output: true if the response is still within the time to live of the endpoint. */
+    public synchronized boolean isFresh(String endpoint, Entry entry) {
+        Duration ttl = ttls.get(endpoint);
+        return ttl != null && entry.fetched().plus(ttl).isAfter(Instant.now());
+    }
+
+    /** Stores a response freshly received from the server.
+     * Input: The endpoint, the body and its ETag / Last-Modified headers (null when absent).
+     * Output: The new entry. */
+    public synchronized Entry store(String endpoint, String body, String etag, String lastModified) throws IOException {
+        Entry entry = new Entry(body, etag, lastModified, Instant.now(), sha256(body));
+        save(endpoint, entry);
+        entries.put(endpoint, entry);
+        return entry;
+    }
+
+    /** The server answered 304: the stored body is still current, only its timestamp moves.
+     * Input: The endpoint and its stored response.
+     * Output: The refreshed entry. */
+    public synchronized Entry revalidated(String endpoint, Entry entry) throws IOException {
+        Entry refreshed = new Entry(entry.body(), entry.etag(), entry.lastModified(), Instant.now(), entry.hash());
+        save(endpoint, refreshed);
+        entries.put(endpoint, refreshed);
+        return refreshed;
+    }
+
+    /** Makes the stored response of an endpoint stale, so the next call revalidates it with the server.
+     * Input: The endpoint.
+     * Output: void. */
+    public synchronized void expire(String endpoint) {
+        lookup(endpoint).ifPresent(entry -> entries.put(endpoint,
+                new Entry(entry.body(), entry.etag(), entry.lastModified(), Instant.EPOCH, entry.hash())));
+    }
+
+    /** Input: An endpoint.
+     * Output: The content hash of its stored response, or null if nothing is stored. */
+    public String hash(String endpoint) {
+        return lookup(endpoint).map(Entry::hash).orElse(null);
+    }
+
+    /** Input: The name of a stage using an endpoint (e.g. "inventory-catalog") and that endpoint.
+     * Output: true if the stage already applied the content currently stored for the endpoint. */
+    public synchronized boolean isApplied(String stage, String endpoint) throws IOException {
+        String hash = hash(endpoint);
+        Path stamp = directory.resolve(stage + ".applied");
+        return hash != null && Files.exists(stamp) && Files.readString(stamp, StandardCharsets.UTF_8).trim().equals(hash);
+    }
+
+    /** Remembers that a stage is done with the content currently stored for an endpoint.
+     * Input: The stage name and the endpoint.
+     * Output: void. */
+    public synchronized void markApplied(String stage, String endpoint) throws IOException {
+        String hash = hash(endpoint);
+        if (hash == null) {
+            throw new IllegalStateException("nothing cached for " + endpoint);
+        }
+        writeAtomically(directory.resolve(stage + ".applied"), hash);
+    }
+
+    /** Files of an endpoint: "/signature-public-key" is kept in signature-public-key.body and .meta. */
+    private Path file(String endpoint, String extension) {
+        String name = endpoint.replaceAll("^/+", "").replaceAll("[^A-Za-z0-9._-]", "_");
+        return directory.resolve(name + extension);
+    }
+
+    private Entry load(String endpoint) {
+        Path body = file(endpoint, ".body");
+        Path meta = file(endpoint, ".meta");
+        if (!Files.exists(body) || !Files.exists(meta)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+            Properties props = new Properties();
+            props.load(reader);
+            String content = Files.readString(body, StandardCharsets.UTF_8);
+            String hash = sha256(content);
+            // a body edited or cut short on disk is not served
+            if (!hash.equals(props.getProperty("sha256"))) {
+                System.err.println("Cached " + endpoint + " is corrupted, it will be downloaded again");
+                return null;
+            }
+            return new Entry(content, props.getProperty("etag"), props.getProperty("last-modified"),
+                    Instant.ofEpochMilli(Long.parseLong(props.getProperty("fetched", "0"))), hash);
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Cached " + endpoint + " unreadable, it will be downloaded again: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(String endpoint, Entry entry) throws IOException {
+        Properties props = new Properties();
+        if (entry.etag() != null) {
+            props.setProperty("etag", entry.etag());
+        }
+        if (entry.lastModified() != null) {
+            props.setProperty("last-modified", entry.lastModified());
+        }
+        props.setProperty("fetched", Long.toString(entry.fetched().toEpochMilli()));
+        props.setProperty("sha256", entry.hash());
+        // the body goes first, so a crash in between leaves a meta file whose hash does not match
+        writeAtomically(file(endpoint, ".body"), entry.body());
+        Path meta = Files.createTempFile(directory, "meta", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(meta, StandardCharsets.UTF_8)) {
+            props.store(writer, endpoint);
+        }
+        Files.move(meta, file(endpoint, ".meta"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeAtomically(Path target, String content) throws IOException {
+        Path temp = Files.createTempFile(directory, "body", ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Input: A response body.
+     * Output: The hex SHA-256 of its UTF-8 bytes. */
+    static String sha256(String content) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
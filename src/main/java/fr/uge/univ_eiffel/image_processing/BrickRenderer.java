@@ -0,0 +1,256 @@
+package fr.uge.univ_eiffel.image_processing;
+
+import fr.uge.univ_eiffel.tiling.TilingResult;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Draws a tiled mosaic the way LegoVisualizer always did, without calling Graphics2D for every stud.
+ * One stud cell (brick color, stud disc and stud outline) is rendered per color with Graphics2D, exactly like the
+ * original per-stud calls, then bricks are painted by copying rows of that cell straight into the int[] raster.
+ * The brick outline is one translucent line: its color over a brick color, or over whatever lies under it
+ * outside the brick, is also computed once by Graphics2D and remembered. The output is pixel-identical to the
+ * per-stud drawing, with two exceptions at tiny scales: at a few of them (7 pixels per stud) Java2D rasterizes the
+ * same oval a pixel differently depending on its position while every stud is identical here, and under 5 pixels
+ * the 1 pixel of stud outline that the original lets overflow onto the next stud is dropped.
+ * Huge mosaics can also be streamed strip by strip (see stream), rendered in parallel and never held in memory whole.
+ * Fields: The size of a stud in pixels, the stud padding, and the caches of colored cells and outline colors
+ * (safe to share between threads). */
+public final class BrickRenderer {
+
+    static final Color BRICK_EDGE = new Color(0, 0, 0, 127);
+    static final Color STUD_COLOR = new Color(0, 0, 0, 25);
+    static final Color STUD_EDGE = new Color(0, 0, 0, 50);
+
+    private final int scale;
+    private final int padding;
+    private final Map<Integer, int[]> cells = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> edges = new ConcurrentHashMap<>();
+
+    /** Input: The size of one stud in pixels.
+     * Output: A new BrickRenderer. */
+    public BrickRenderer(int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("scale must be positive");
+        }
+        this.scale = scale;
+        this.padding = scale / 5;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    /** Renders the whole mosaic in one image.
+     * Input: The placements, drawn in order.
+     * Output: A TYPE_INT_ARGB image of canvasWidth by canvasHeight pixels. */
+    public BufferedImage render(TilingResult bricks) {
+        BufferedImage image = new BufferedImage(canvasWidth(bricks), canvasHeight(bricks), BufferedImage.TYPE_INT_ARGB);
+        IntRaster raster = IntRaster.writable(image);
+        renderRows(bricks, raster.data(), raster.rowOffset(0), image.getWidth(), 0, image.getHeight());
+        return image;
+    }
+
+    /** Input: The placements.
+     * Output: The canvas width in pixels (at least 1). */
+    public int canvasWidth(TilingResult bricks) {
+        return Math.max(1, bricks.studsWide() * scale);
+    }
+
+    /** Input: The placements.
+     * Output: The canvas height in pixels (at least 1). */
+    public int canvasHeight(TilingResult bricks) {
+        return Math.max(1, bricks.studsHigh() * scale);
+    }
+
+    /** Renders the mosaic as horizontal strips, several at a time on the pool, and hands the rows to the sinks in order.
+     * Only the strips in flight (twice the pool parallelism) are in memory, never the whole canvas: with a
+     * PngStreamWriter as sink, the size of the mosaic is only limited by the disk. Bricks are bucketed by strip
+     * first, so every strip only goes through the bricks crossing it.
+     * Input: The placements, the strip height in pixels, the pool and the sinks receiving every row.
+     * Output: void. */
+    public void stream(TilingResult bricks, int stripHeight, ForkJoinPool pool, RowSink... sinks) throws IOException {
+        if (stripHeight < 1) {
+            throw new IllegalArgumentException("stripHeight must be positive");
+        }
+        int width = canvasWidth(bricks);
+        int height = canvasHeight(bricks);
+        int count = bricks.count();
+        int strips = (height + stripHeight - 1) / stripHeight;
+
+        // bricks of each strip, in drawing order; the outline reaches one row below the brick
+        int[] sizes = new int[strips];
+        for (int i = 0; i < count; i++) {
+            for (int strip = firstStrip(bricks.y(i), stripHeight); strip <= lastStrip(bricks.y(i) + bricks.height(i), height, stripHeight); strip++) {
+                sizes[strip]++;
+            }
+        }
+        int[][] buckets = new int[strips][];
+        for (int strip = 0; strip < strips; strip++) {
+            buckets[strip] = new int[sizes[strip]];
+            sizes[strip] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int strip = firstStrip(bricks.y(i), stripHeight); strip <= lastStrip(bricks.y(i) + bricks.height(i), height, stripHeight); strip++) {
+                buckets[strip][sizes[strip]++] = i;
+            }
+        }
+
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<Future<int[]>> inFlight = new ArrayDeque<>();
+        int submitted = 0;
+        try {
+            for (int strip = 0; strip < strips; strip++) {
+                while (submitted < strips && submitted - strip < window) {
+                    int[] bucket = buckets[submitted];
+                    int fromRow = submitted * stripHeight;
+                    int toRow = Math.min(height, fromRow + stripHeight);
+                    inFlight.add(pool.submit(() -> {
+                        int[] pixels = new int[(toRow - fromRow) * width];
+                        for (int i : bucket) {
+                            drawBrick(bricks, i, pixels, 0, width, fromRow, toRow);
+                        }
+                        return pixels;
+                    }));
+                    submitted++;
+                }
+                int[] pixels = await(inFlight.poll());
+                for (int at = 0; at < pixels.length; at += width) {
+                    for (RowSink sink : sinks) {
+                        sink.row(pixels, at);
+                    }
+                }
+            }
+        } finally {
+            for (Future<int[]> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+    }
+
+    private int firstStrip(int brickY, int stripHeight) {
+        return brickY * scale / stripHeight;
+    }
+
+    private int lastStrip(int brickBottom, int height, int stripHeight) {
+        return Math.min(brickBottom * scale, height - 1) / stripHeight;
+    }
+
+    private static int[] await(Future<int[]> strip) throws IOException {
+        try {
+            return strip.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException("Failed to render a strip", e.getCause());
+        }
+    }
+
+    /** Renders only the pixel rows [fromRow, toRow) of the mosaic, into a caller provided raster.
+     * Bricks are drawn in order, so overlapping outlines end up exactly as with the full rendering.
+     * Input: The placements, the target array, the index of pixel (0, fromRow) in it, the canvas width
+     * (also the row stride) and the row range.
+     * Output: void (fills the target). */
+    public void renderRows(TilingResult bricks, int[] target, int offset, int width, int fromRow, int toRow) {
+        for (int i = 0; i < bricks.count(); i++) {
+            drawBrick(bricks, i, target, offset, width, fromRow, toRow);
+        }
+    }
+
+    /** Draws the part of one brick (outline included) falling in the rows [fromRow, toRow). */
+    private void drawBrick(TilingResult bricks, int i, int[] target, int offset, int width, int fromRow, int toRow) {
+        int studsWide = bricks.width(i);
+        int left = bricks.x(i) * scale;
+        int top = bricks.y(i) * scale;
+        int right = left + studsWide * scale;
+        int bottom = top + bricks.height(i) * scale;
+        if (bottom < fromRow || top >= toRow || left >= width) {
+            return;
+        }
+        int rgb = bricks.color(i) & 0xFFFFFF;
+        int[] cell = cell(rgb);
+        int edge = edge(0xFF000000 | rgb);
+
+        // brick body, stud cells tiled row by row, top row and left column covered by the outline
+        for (int row = Math.max(top, fromRow); row < Math.min(bottom, toRow); row++) {
+            int at = offset + (row - fromRow) * width;
+            int cellRow = (row - top) % scale * scale;
+            if (row == top) {
+                for (int x = left; x < Math.min(right, width); x++) {
+                    target[at + x] = edge;
+                }
+                continue;
+            }
+            for (int c = 0; c < studsWide; c++) {
+                int x = left + c * scale;
+                int length = Math.min(scale, width - x);
+                if (length <= 0) {
+                    break;
+                }
+                System.arraycopy(cell, cellRow, target, at + x, length);
+            }
+            target[at + left] = edge;
+        }
+
+        // the outline also covers the column right after the brick and the row below it
+        if (right < width) {
+            for (int row = Math.max(top, fromRow); row <= Math.min(bottom, toRow - 1); row++) {
+                int at = offset + (row - fromRow) * width + right;
+                target[at] = edge(target[at]);
+            }
+        }
+        if (bottom >= fromRow && bottom < toRow) {
+            int at = offset + (bottom - fromRow) * width;
+            for (int x = left; x < Math.min(right, width); x++) {
+                target[at + x] = edge(target[at + x]);
+            }
+        }
+    }
+
+    /** One stud of a given color, drawn with the same Graphics2D calls as the original visualizer.
+     * Input: Packed RGB color.
+     * Output: scale * scale ARGB pixels, row by row. */
+    private int[] cell(int rgb) {
+        return cells.computeIfAbsent(rgb, color -> {
+            BufferedImage cell = new BufferedImage(scale, scale, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = cell.createGraphics();
+            g.setColor(new Color(color));
+            g.fillRect(0, 0, scale, scale);
+            int size = scale - padding * 2;
+            g.setColor(STUD_COLOR);
+            g.fillOval(padding, padding, size, size);
+            g.fillOval(padding, padding, size, size);
+            g.setColor(STUD_EDGE);
+            g.drawOval(padding, padding, size, size);
+            g.dispose();
+            return cell.getRGB(0, 0, scale, scale, null, 0, scale);
+        });
+    }
+
+    /** The brick outline drawn over one pixel value.
+     * Input: The ARGB value under the outline.
+     * Output: The ARGB value after drawing it. */
+    private int edge(int under) {
+        return edges.computeIfAbsent(under, value -> {
+            BufferedImage pixel = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+            pixel.setRGB(0, 0, value);
+            Graphics2D g = pixel.createGraphics();
+            g.setColor(BRICK_EDGE);
+            g.fillRect(0, 0, 1, 1);
+            g.dispose();
+            return pixel.getRGB(0, 0);
+        });
+    }
+}
@@ -1,13 +1,29 @@
 package fr.uge.univ_eiffel.image_processing;
 
+import fr.uge.univ_eiffel.image_processing.downscalers.Downscaler;
+
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 
 /** Utility class handling all the messy file I/O operations for images.
- * Responsible for converting between Files, BufferedImages, and the Hex Matrix format needed for the C engine.
+ * Responsible for converting between Files, BufferedImages, and the Hex Matrix format needed for the C engine
+ * (plus its compact binary counterpart).
  * Fields: None (Static utility class). */
 public class ImageUtils {
 
@@ -28,38 +44,231 @@ public class ImageUtils {
         }
     }
 
+    /** Loads an image file for a given target size, without ever materializing more pixels than needed.
+     * The decoder reads only the optional region of interest and skips rows/columns (source subsampling),
+     * keeping the coarsest step that still leaves the downscaler its oversampling() pixels per output pixel.
+     * Input: The source file, the algorithm that will shrink it, the target dimensions and a region (null for all).
+     * Output: A BufferedImage of the region, at full or reduced resolution. */
+    public static BufferedImage imageToBuffered(File input, Downscaler method, int targetWidth, int targetHeight, Rectangle region) throws IOException {
+
+        if (!input.exists()) {
+            throw new IOException("File does not exist: " + input.getAbsolutePath());
+        }
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            throw new IllegalArgumentException("target dimensions must be positive");
+        }
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) {
+                throw new IOException("Failed to open image file: " + input.getAbsolutePath());
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("No decoder found for file: " + input.getAbsolutePath());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+
+                // only the header is parsed here, the pixels are not decoded yet
+                Rectangle bounds = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+                Rectangle area = region == null ? bounds : region.intersection(bounds);
+                if (area.isEmpty()) {
+                    throw new IllegalArgumentException("region " + region + " is outside of the image " + bounds);
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(area);
+                param.setSourceSubsampling(
+                        subsampling(area.width, targetWidth, method.oversampling()),
+                        subsampling(area.height, targetHeight, method.oversampling()),
+                        0, 0);
+                BufferedImage img = reader.read(0, param);
+
+                if (img == null) {
+                    throw new IOException("Failed to read image from file: " + input.getAbsolutePath());
+                }
+                return img;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /** Largest decoding step keeping at least target * oversampling samples along one axis.
+     * Input: Source size, target size and oversampling factor.
+     * Output: The subsampling step (1 means every pixel is read). */
+    static int subsampling(int sourceSize, int targetSize, int oversampling) {
+        long needed = (long) targetSize * Math.max(1, oversampling);
+        return (int) Math.max(1, sourceSize / needed);
+    }
+
     /** Converts pixel data into a formatted Hex Matrix text file.
-     * This is the bridge format that the C program reads to understand the image.
+     * This is the bridge format that the C program reads to understand the image (kept for compatibility,
+     * see bufferedToBinaryMatrix for the compact format). Each row is hex-encoded into a byte buffer in one go
+     * instead of going through printf for every pixel; the bytes written are the same.
      * Input: The desired output filename and the source BufferedImage.
-     * Output: The active PrintWriter (though usually closed by the caller). */
-    public static PrintWriter bufferedToHexMatrix(String name, BufferedImage img) throws IOException {
+     * Output: The written File. */
+    public static File bufferedToHexMatrix(String name, BufferedImage img) throws IOException {
 
         if (name == null || name.isEmpty() || name == "null") {
             throw new IllegalArgumentException("name cannot be empty or null");
         }
-        try (PrintWriter writer = new PrintWriter(name)) {
+        File outputFile = new File(name);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16)) {
+            writeHexMatrix(out, img);
+            return outputFile;
 
-            int width = img.getWidth();
-            int height = img.getHeight();
-            writer.printf(width + " " + height + "\n");
+        } catch (IOException e) {
+            throw new IOException("Failed to write image Hex to file", e);
+        }
+    }
 
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
+    /** Writes the Hex Matrix format to any stream, e.g. straight into the stdin of a tiler process.
+     * Input: The target stream (flushed, not closed) and the image.
+     * Output: void. */
+    public static void writeHexMatrix(OutputStream out, BufferedImage img) throws IOException {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        out.write((width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        byte[] newLine = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        // 6 hex digits per pixel, a space between pixels, then the line separator
+        byte[] line = new byte[Math.max(0, width * 7 - 1) + newLine.length];
+        int[] pixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            img.getRGB(0, y, width, 1, pixels, 0, width);
+            int at = 0;
+            for (int x = 0; x < width; x++) {
+                // only the 6 low digits are written, which drops the alpha channel
+                int rgb = pixels[x];
+                for (int shift = 20; shift >= 0; shift -= 4) {
+                    line[at++] = HEX_DIGITS[(rgb >> shift) & 0xF];
+                }
+                if (x < width - 1) {
+                    line[at++] = ' ';
+                }
+            }
+            System.arraycopy(newLine, 0, line, at, newLine.length);
+            out.write(line);
+        }
+        out.flush();
+    }
 
-                    // masks the alpha channel to keep only pure rgb values, maybe an ARGB version will be implemented in the future
-                    int rgb = img.getRGB(x, y) & 0xFFFFFF; // keep only RGB
-                    writer.printf("%06X", rgb);
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
 
-                    if (x < width - 1) {
-                        writer.print(" ");
+    /** Magic number opening every binary matrix file ("J2BM"). */
+    public static final int BINARY_MATRIX_MAGIC = 0x4A32424D;
+    /** Size of the binary matrix header: magic, width, height and bytes per pixel, as big-endian ints. */
+    public static final int BINARY_MATRIX_HEADER = 16;
+
+    /** Writes the pixels in the compact binary matrix format.
+     * Layout: 16 byte header (magic "J2BM", width, height, bytes per pixel), then the pixels row by row,
+     * either packed RGB24 (3 bytes, R G B) or ARGB32 (4 bytes, A R G B). It is about 2.3x smaller than the hex text
+     * and needs no parsing at all. Written through a FileChannel, one row buffer at a time.
+     * Input: The output filename, the image, and whether the alpha channel must be kept.
+     * Output: The written File. */
+    public static File bufferedToBinaryMatrix(String name, BufferedImage img, boolean withAlpha) throws IOException {
+
+        if (name == null || name.isEmpty() || name == "null") {
+            throw new IllegalArgumentException("name cannot be empty or null");
+        }
+        File outputFile = new File(name);
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int bytesPerPixel = withAlpha ? 4 : 3;
+
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer header = ByteBuffer.allocate(BINARY_MATRIX_HEADER);
+            header.putInt(BINARY_MATRIX_MAGIC).putInt(width).putInt(height).putInt(bytesPerPixel).flip();
+            writeFully(channel, header);
+
+            // a handful of rows per write keeps the syscalls few without holding the whole image twice
+            int rowsPerChunk = Math.max(1, (1 << 16) / Math.max(1, width * bytesPerPixel));
+            ByteBuffer chunk = ByteBuffer.allocateDirect(rowsPerChunk * width * bytesPerPixel);
+            IntRaster raster = IntRaster.of(img);
+            int[] pixels = new int[width];
+            for (int y = 0; y < height; y++) {
+                int[] row;
+                int offset;
+                int alpha;
+                if (raster != null) {
+                    row = raster.data();
+                    offset = raster.rowOffset(y);
+                    alpha = raster.alphaMask();
+                } else {
+                    img.getRGB(0, y, width, 1, pixels, 0, width);
+                    row = pixels;
+                    offset = 0;
+                    alpha = 0;
+                }
+                for (int x = 0; x < width; x++) {
+                    int argb = row[offset + x] | alpha;
+                    if (withAlpha) {
+                        chunk.putInt(argb);
+                    } else {
+                        chunk.put((byte) (argb >> 16)).put((byte) (argb >> 8)).put((byte) argb);
                     }
                 }
-                writer.println();
+                if (chunk.remaining() < width * bytesPerPixel || y == height - 1) {
+                    chunk.flip();
+                    writeFully(channel, chunk);
+                    chunk.clear();
+                }
             }
-            return writer;
+            return outputFile;
 
         } catch (IOException e) {
-            throw new IOException("Failed to write image Hex to file");
+            throw new IOException("Failed to write binary matrix to file: " + outputFile.getAbsolutePath(), e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /** Reads a binary matrix file back into an image, through a memory-mapped view of the file.
+     * RGB24 matrices come back fully opaque.
+     * Input: Path of a file written by bufferedToBinaryMatrix.
+     * Output: A TYPE_INT_ARGB BufferedImage. */
+    public static BufferedImage binaryMatrixToBuffered(String path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            if (channel.size() < BINARY_MATRIX_HEADER) {
+                throw new IOException("Not a binary matrix (too short): " + path);
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt() != BINARY_MATRIX_MAGIC) {
+                throw new IOException("Not a binary matrix (bad magic): " + path);
+            }
+            int width = map.getInt();
+            int height = map.getInt();
+            int bytesPerPixel = map.getInt();
+            if (width <= 0 || height <= 0 || (bytesPerPixel != 3 && bytesPerPixel != 4)) {
+                throw new IOException("Corrupted binary matrix header: " + path);
+            }
+            if (map.remaining() < (long) width * height * bytesPerPixel) {
+                throw new IOException("Truncated binary matrix: " + path);
+            }
+
+            BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            IntRaster raster = IntRaster.writable(img);
+            int[] data = raster.data();
+            for (int y = 0; y < height; y++) {
+                int at = raster.rowOffset(y);
+                if (bytesPerPixel == 4) {
+                    map.asIntBuffer().get(data, at, width);
+                    map.position(map.position() + width * 4);
+                } else {
+                    for (int x = 0; x < width; x++) {
+                        data[at + x] = 0xFF000000 | (map.get() & 0xFF) << 16 | (map.get() & 0xFF) << 8 | (map.get() & 0xFF);
+                    }
+                }
+            }
+            return img;
         }
     }
 
@@ -0,0 +1,95 @@
+package fr.uge.univ_eiffel.image_processing;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/** Direct view over the int[] that backs a TYPE_INT_ARGB or TYPE_INT_RGB image.
+ * Lets the hot loops read and write packed pixels without going through getRGB/setRGB and the color model.
+ * Values read through get() are exactly what BufferedImage.getRGB would return for the same pixel.
+ * Fields: the backing array, the offset of pixel (0,0), the scanline stride, the dimensions and the alpha mask. */
+public final class IntRaster {
+
+    private final int[] data;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+    private final int alphaMask;
+
+    private IntRaster(int[] data, int offset, int stride, int width, int height, int alphaMask) {
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+        this.alphaMask = alphaMask;
+    }
+
+    /** Wraps the pixels of an image if its layout allows direct access.
+     * TYPE_INT_RGB images are read with an opaque alpha, like getRGB does.
+     * Input: Any BufferedImage.
+     * Output: An IntRaster over its pixels, or null if the image has another layout (use the generic path then). */
+    public static IntRaster of(BufferedImage img) {
+        int alphaMask;
+        switch (img.getType()) {
+            case BufferedImage.TYPE_INT_ARGB -> alphaMask = 0;
+            case BufferedImage.TYPE_INT_RGB -> alphaMask = 0xFF000000;
+            default -> {
+                return null;
+            }
+        }
+        WritableRaster raster = img.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt buffer)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel model)) {
+            return null;
+        }
+        int stride = model.getScanlineStride();
+        // sub images share the parent's array, the translation tells where our (0,0) lives in it
+        int offset = buffer.getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX();
+        return new IntRaster(buffer.getData(), offset, stride, img.getWidth(), img.getHeight(), alphaMask);
+    }
+
+    /** Wraps an image that is known to be writable as packed ARGB (the destinations we allocate ourselves).
+     * Input: A TYPE_INT_ARGB image.
+     * Output: An IntRaster over its pixels, or null if the image is not TYPE_INT_ARGB. */
+    public static IntRaster writable(BufferedImage img) {
+        return img.getType() == BufferedImage.TYPE_INT_ARGB ? of(img) : null;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Index of the first pixel of row y in data(). */
+    public int rowOffset(int y) {
+        return offset + y * stride;
+    }
+
+    /** The raw backing array, to be indexed with rowOffset(y) + x.
+     * Pixels read from it directly must be OR-ed with alphaMask() to match getRGB. */
+    public int[] data() {
+        return data;
+    }
+
+    public int alphaMask() {
+        return alphaMask;
+    }
+
+    /** Reads one pixel as packed ARGB (same value as getRGB). */
+    public int get(int x, int y) {
+        return data[offset + y * stride + x] | alphaMask;
+    }
+
+    /** Writes one packed ARGB pixel (same effect as setRGB on a TYPE_INT_ARGB image). */
+    public void set(int x, int y, int argb) {
+        data[offset + y * stride + x] = argb;
+    }
+}
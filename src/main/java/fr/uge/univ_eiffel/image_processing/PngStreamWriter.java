@@ -0,0 +1,195 @@
+package fr.uge.univ_eiffel.image_processing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** Minimal PNG encoder (8 bit RGBA, no interlacing) fed one row at a time.
+ * Rows are filtered (None, Sub or Up, whichever looks cheapest), deflated on the fly and written out as IDAT chunks
+ * of at most 64KB, so only a couple of rows are ever kept, whatever the size of the image.
+ * Fields: The target stream, the image size, the number of rows received, the deflater and the row buffers. */
+public final class PngStreamWriter implements RowSink, AutoCloseable {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private int rows;
+    private final Deflater deflater;
+    private final DeflaterOutputStream pixels;
+    private byte[] previous;
+    private byte[] current;
+    private final byte[][] filtered;
+
+    /** Writes the PNG header right away.
+     * Input: The target stream (closed by close()) and the image size.
+     * Output: A new PngStreamWriter expecting height rows. */
+    public PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("image dimensions must be positive");
+        }
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        int stride = width * BYTES_PER_PIXEL;
+        this.previous = new byte[stride];
+        this.current = new byte[stride];
+        this.filtered = new byte[3][stride + 1];
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        this.pixels = new DeflaterOutputStream(new ChunkStream(), deflater, CHUNK_SIZE);
+
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream fields = new DataOutputStream(header);
+        fields.writeInt(width);
+        fields.writeInt(height);
+        fields.writeByte(8);    // bits per channel
+        fields.writeByte(6);    // color type: RGBA
+        fields.writeByte(0);    // deflate
+        fields.writeByte(0);    // adaptive filtering
+        fields.writeByte(0);    // no interlacing
+        chunk("IHDR", header.toByteArray(), header.size());
+    }
+
+    /** Opens a PNG file for writing.
+     * Input: The file path and the image size.
+     * Output: A new PngStreamWriter on that file. */
+    public static PngStreamWriter create(Path file, int width, int height) throws IOException {
+        return new PngStreamWriter(new BufferedOutputStream(Files.newOutputStream(file), CHUNK_SIZE), width, height);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Filters and compresses the next row.
+     * Input: The ARGB pixels (non premultiplied) and the index of the first one.
+     * Output: void. */
+    @Override
+    public void row(int[] argb, int offset) throws IOException {
+        if (rows == height) {
+            throw new IllegalStateException("all " + height + " rows were already written");
+        }
+        int at = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = argb[offset + x];
+            current[at++] = (byte) (pixel >> 16);
+            current[at++] = (byte) (pixel >> 8);
+            current[at++] = (byte) pixel;
+            current[at++] = (byte) (pixel >>> 24);
+        }
+
+        // None, Sub and Up, keeping the one with the smallest sum of absolute values (the usual heuristic)
+        byte[] none = filtered[0], sub = filtered[1], up = filtered[2];
+        none[0] = 0;
+        sub[0] = 1;
+        up[0] = 2;
+        long noneCost = 0, subCost = 0, upCost = 0;
+        for (int i = 0; i < current.length; i++) {
+            byte raw = current[i];
+            byte left = (byte) (raw - (i >= BYTES_PER_PIXEL ? current[i - BYTES_PER_PIXEL] : 0));
+            byte above = (byte) (raw - previous[i]);
+            none[i + 1] = raw;
+            sub[i + 1] = left;
+            up[i + 1] = above;
+            noneCost += Math.abs(raw);
+            subCost += Math.abs(left);
+            upCost += Math.abs(above);
+        }
+        byte[] best = none;
+        long bestCost = noneCost;
+        if (subCost < bestCost) {
+            best = sub;
+            bestCost = subCost;
+        }
+        if (upCost < bestCost) {
+            best = up;
+        }
+        pixels.write(best);
+
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+        rows++;
+    }
+
+    /** Flushes the compressed data and writes the end of the file.
+     * Input: None.
+     * Output: void (fails if some rows were never written). */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rows != height) {
+                throw new IOException("PNG is incomplete: " + rows + " rows written out of " + height);
+            }
+            pixels.finish();
+            // finish() leaves the last compressed bytes in the chunk buffer
+            pixels.flush();
+            chunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void chunk(String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /** Collects the deflated bytes and emits them as IDAT chunks.
+     * Fields: The pending compressed bytes. */
+    private final class ChunkStream extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                int copied = Math.min(length, CHUNK_SIZE - size);
+                System.arraycopy(data, offset, buffer, size, copied);
+                size += copied;
+                offset += copied;
+                length -= copied;
+                if (size == CHUNK_SIZE) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                chunk("IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package fr.uge.univ_eiffel.image_processing;
+
+import java.io.IOException;
+
+/** Receives an image one row at a time, from top to bottom, so that it never has to exist in memory as a whole.
+ * Implemented by the streaming PNG encoder and by the tile pyramid, fed by BrickRenderer.stream.
+ * Fields: None (Interface). */
+public interface RowSink {
+
+    /** Consumes the next row.
+     * Input: An array holding the ARGB pixels of the row and the index of its first pixel (only read during the call).
+     * Output: void. */
+    void row(int[] pixels, int offset) throws IOException;
+}
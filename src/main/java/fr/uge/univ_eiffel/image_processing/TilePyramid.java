@@ -0,0 +1,168 @@
+package fr.uge.univ_eiffel.image_processing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Cuts an image streamed row by row into a deep-zoom pyramid of PNG tiles, laid out as directory/z/x/y.png.
+ * The deepest level (maxZoom) is the image at full size; every level above is half the size of the one below, down to
+ * level 0 which fits in a single tile. Tiles on the right and bottom borders are smaller than TILE_SIZE.
+ * Each level only keeps one band of TILE_SIZE rows plus one row waiting for its pair: two rows of a level are
+ * averaged into one row of the next. A pyramid.json file describes the result for the web viewer.
+ * Fields: The output directory, the full image size, the deepest zoom level and the full size level. */
+public final class TilePyramid implements RowSink, AutoCloseable {
+
+    public static final int TILE_SIZE = 256;
+
+    private final Path directory;
+    private final int width;
+    private final int height;
+    private final int maxZoom;
+    private final Level full;
+
+    /** Input: The directory receiving the tiles (created if needed) and the full image size.
+     * Output: A new TilePyramid expecting height rows. */
+    public TilePyramid(Path directory, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("image dimensions must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.width = width;
+        this.height = height;
+        int zoom = 0;
+        while ((Math.max(width, height) - 1 >> zoom) >= TILE_SIZE) {
+            zoom++;
+        }
+        this.maxZoom = zoom;
+
+        Level level = null;
+        for (int z = 0; z <= maxZoom; z++) {
+            int shift = maxZoom - z;
+            level = new Level(z, ceilShift(width, shift), ceilShift(height, shift), level);
+        }
+        this.full = level;
+    }
+
+    private static int ceilShift(int size, int shift) {
+        return (int) (((long) size + (1L << shift) - 1) >> shift);
+    }
+
+    public int maxZoom() {
+        return maxZoom;
+    }
+
+    /** Input: The next row of the full size image.
+     * Output: void (writes the tiles of every band that gets completed). */
+    @Override
+    public void row(int[] pixels, int offset) throws IOException {
+        full.row(pixels, offset);
+    }
+
+    /** Writes the last, partial bands of every level and the pyramid.json descriptor.
+     * Input: None.
+     * Output: void (fails if some rows were never received). */
+    @Override
+    public void close() throws IOException {
+        if (full.rows != height) {
+            throw new IOException("tile pyramid is incomplete: " + full.rows + " rows received out of " + height);
+        }
+        full.finish();
+        String descriptor = String.format("{\"width\":%d,\"height\":%d,\"tileSize\":%d,\"minZoom\":0,\"maxZoom\":%d,\"format\":\"png\"}%n",
+                width, height, TILE_SIZE, maxZoom);
+        Files.writeString(directory.resolve("pyramid.json"), descriptor, StandardCharsets.UTF_8);
+    }
+
+    /** One zoom level: a band of rows being filled, and the row waiting to be averaged with the next one.
+     * Fields: The zoom, the level size, the band, the rows received, the pending row and the smaller level (null at 0). */
+    private final class Level {
+        private final int zoom;
+        private final int width;
+        private final int height;
+        private final int[] band;
+        private int bandRows;
+        private int rows;
+        private final int[] pending;
+        private boolean hasPending;
+        private final int[] halved;
+        private final Level smaller;
+
+        Level(int zoom, int width, int height, Level smaller) {
+            this.zoom = zoom;
+            this.width = width;
+            this.height = height;
+            this.band = new int[width * Math.min(TILE_SIZE, height)];
+            this.smaller = smaller;
+            this.pending = smaller == null ? null : new int[width];
+            this.halved = smaller == null ? null : new int[smaller.width];
+        }
+
+        void row(int[] pixels, int offset) throws IOException {
+            System.arraycopy(pixels, offset, band, bandRows * width, width);
+            bandRows++;
+            rows++;
+            if (bandRows == TILE_SIZE || rows == height) {
+                writeBand();
+            }
+            if (smaller == null) {
+                return;
+            }
+            if (!hasPending) {
+                System.arraycopy(pixels, offset, pending, 0, width);
+                hasPending = true;
+                return;
+            }
+            halve(pending, 0, pixels, offset);
+            hasPending = false;
+            smaller.row(halved, 0);
+        }
+
+        /** Flushes the odd last row of every level down to level 0. */
+        void finish() throws IOException {
+            if (smaller == null) {
+                return;
+            }
+            if (hasPending) {
+                halve(pending, 0, pending, 0);
+                hasPending = false;
+                smaller.row(halved, 0);
+            }
+            smaller.finish();
+        }
+
+        /** Averages 2x2 blocks of two rows into the halved row, colors weighted by their alpha.
+         * Input: The two rows (the same one twice for an odd last row). */
+        private void halve(int[] top, int topOffset, int[] bottom, int bottomOffset) {
+            for (int x = 0; x < halved.length; x++) {
+                int left = 2 * x;
+                int right = Math.min(left + 1, width - 1);
+                int[] block = {top[topOffset + left], top[topOffset + right], bottom[bottomOffset + left], bottom[bottomOffset + right]};
+                int alpha = 0, red = 0, green = 0, blue = 0;
+                for (int pixel : block) {
+                    int a = pixel >>> 24;
+                    alpha += a;
+                    red += (pixel >> 16 & 0xFF) * a;
+                    green += (pixel >> 8 & 0xFF) * a;
+                    blue += (pixel & 0xFF) * a;
+                }
+                halved[x] = alpha == 0 ? 0
+                        : (alpha + 2) / 4 << 24 | (red + alpha / 2) / alpha << 16 | (green + alpha / 2) / alpha << 8 | (blue + alpha / 2) / alpha;
+            }
+        }
+
+        private void writeBand() throws IOException {
+            int tileY = (rows - 1) / TILE_SIZE;
+            for (int tileX = 0; tileX * TILE_SIZE < width; tileX++) {
+                int left = tileX * TILE_SIZE;
+                int tileWidth = Math.min(TILE_SIZE, width - left);
+                Path column = Files.createDirectories(directory.resolve(Integer.toString(zoom)).resolve(Integer.toString(tileX)));
+                try (PngStreamWriter tile = PngStreamWriter.create(column.resolve(tileY + ".png"), tileWidth, bandRows)) {
+                    for (int y = 0; y < bandRows; y++) {
+                        tile.row(band, y * width + left);
+                    }
+                }
+            }
+            bandRows = 0;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package fr.uge.univ_eiffel.image_processing.downscalers;
+
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+
+import java.awt.image.BufferedImage;
+
+/** Box-filter downscaler: every destination pixel is the exact average of the source area it covers.
+ * A per-channel summed-area table (integral image) of the source is built in one streaming pass, after which
+ * the sum over any rectangle costs 4 lookups, whatever the scale factor. Fractional borders are handled exactly,
+ * since the integral is bilinear inside a source pixel.
+ * Only the table entries on the rows/columns a destination border can fall on are kept,
+ * so the table stays a few MB even for 50 MP sources. Sums are stored as longs (255 * 50 MP overflows an int).
+ * Fields: None. */
+public class AreaAverager implements Downscaler {
+
+    private static final int CHANNELS = 4;
+
+    /** One axis of the sampled table: destination border k lies between integer positions low[k] and high[k],
+     * at a fraction frac[k] of the way, so I(border) = I(low) + frac * (I(high) - I(low)).
+     * Fields: The position of every border, and its two surrounding integer positions. */
+    private record Borders(double[] position, int[] low, int[] high, double[] frac) {
+
+        /** Computes the borders [from, to] of the destination cells along one axis.
+         * Input: Source size, destination size and the range of destination borders needed.
+         * Output: The Borders of that range, indexed from 0. */
+        static Borders of(int srcSize, int dstSize, int from, int to) {
+            int n = to - from + 1;
+            double[] position = new double[n];
+            int[] low = new int[n];
+            int[] high = new int[n];
+            double[] frac = new double[n];
+            for (int i = 0; i < n; i++) {
+                // last border computed exactly to avoid a rounding error past the image edge
+                double p = from + i == dstSize ? srcSize : (double) (from + i) * srcSize / dstSize;
+                position[i] = p;
+                low[i] = Math.min((int) Math.floor(p), srcSize);
+                high[i] = Math.min(low[i] + 1, srcSize);
+                frac[i] = p - low[i];
+            }
+            return new Borders(position, low, high, frac);
+        }
+    }
+
+    /** The average only anti-aliases if each cell still covers several source pixels. */
+    @Override
+    public int oversampling() {
+        return 4;
+    }
+
+    /** Averages a band of destination rows.
+     * The integral is taken relative to the first source row of the band, so bands can run in parallel.
+     * Input: Source image, destination image and the band of destination rows to fill.
+     * Output: void (modifies destination in place). */
+    public void downscaleRows(BufferedImage source, BufferedImage destination, int fromY, int toY) {
+        if (fromY >= toY) {
+            return;
+        }
+        int srcWidth = source.getWidth();
+        int srcHeight = source.getHeight();
+        int dstWidth = destination.getWidth();
+
+        Borders cols = Borders.of(srcWidth, dstWidth, 0, dstWidth);
+        Borders rows = Borders.of(srcHeight, destination.getHeight(), fromY, toY);
+        int base = rows.low()[0];
+        int colSlots = cols.low().length * 2;
+        int rowSlots = rows.low().length * 2;
+
+        // table[(rowSlot * colSlots + colSlot) * 4 + channel] = sum of the source over [0, col) x [base, row)
+        long[] table = new long[rowSlots * colSlots * CHANNELS];
+        long[] columnSums = new long[colSlots * CHANNELS];
+        long[] prefix = new long[(srcWidth + 1) * CHANNELS];
+        int[] line = new int[srcWidth];
+        IntRaster src = IntRaster.of(source);
+
+        int nextLow = 0, nextHigh = 0;
+        int lastRow = rows.high()[rows.high().length - 1];
+        for (int r = base; ; r++) {
+            // snapshot the running column sums on every row a border needs (both sequences are sorted)
+            while (nextLow < rows.low().length && rows.low()[nextLow] == r) {
+                System.arraycopy(columnSums, 0, table, (nextLow * 2) * colSlots * CHANNELS, columnSums.length);
+                nextLow++;
+            }
+            while (nextHigh < rows.high().length && rows.high()[nextHigh] == r) {
+                System.arraycopy(columnSums, 0, table, (nextHigh * 2 + 1) * colSlots * CHANNELS, columnSums.length);
+                nextHigh++;
+            }
+            if (r >= lastRow) {
+                break;
+            }
+
+            int[] pixels;
+            int offset;
+            int alpha;
+            if (src != null) {
+                pixels = src.data();
+                offset = src.rowOffset(r);
+                alpha = src.alphaMask();
+            } else {
+                source.getRGB(0, r, srcWidth, 1, line, 0, srcWidth);
+                pixels = line;
+                offset = 0;
+                alpha = 0;
+            }
+            // horizontal prefix of this row, then accumulated down the needed columns
+            long a = 0, red = 0, g = 0, b = 0;
+            for (int x = 0; x < srcWidth; x++) {
+                int p = pixels[offset + x] | alpha;
+                a += (p >>> 24) & 0xFF;
+                red += (p >> 16) & 0xFF;
+                g += (p >> 8) & 0xFF;
+                b += p & 0xFF;
+                int at = (x + 1) * CHANNELS;
+                prefix[at] = a;
+                prefix[at + 1] = red;
+                prefix[at + 2] = g;
+                prefix[at + 3] = b;
+            }
+            for (int k = 0; k < cols.low().length; k++) {
+                addColumn(columnSums, (k * 2) * CHANNELS, prefix, cols.low()[k] * CHANNELS);
+                addColumn(columnSums, (k * 2 + 1) * CHANNELS, prefix, cols.high()[k] * CHANNELS);
+            }
+        }
+
+        IntRaster dst = IntRaster.writable(destination);
+        int[] result = new int[dstWidth];
+        for (int y = fromY; y < toY; y++) {
+            int r0 = y - fromY;
+            double height = rows.position()[r0 + 1] - rows.position()[r0];
+            for (int x = 0; x < dstWidth; x++) {
+                double area = (cols.position()[x + 1] - cols.position()[x]) * height;
+                int argb = 0;
+                for (int c = 0; c < CHANNELS; c++) {
+                    double sum = integral(table, colSlots, rows, r0 + 1, cols, x + 1, c)
+                            - integral(table, colSlots, rows, r0, cols, x + 1, c)
+                            - integral(table, colSlots, rows, r0 + 1, cols, x, c)
+                            + integral(table, colSlots, rows, r0, cols, x, c);
+                    argb |= clamp((int) Math.round(sum / area), 255) << (24 - c * 8);
+                }
+                result[x] = argb;
+            }
+            if (dst != null) {
+                System.arraycopy(result, 0, dst.data(), dst.rowOffset(y), dstWidth);
+            } else {
+                destination.setRGB(0, y, dstWidth, 1, result, 0, dstWidth);
+            }
+        }
+    }
+
+    /** Adds the 4 channel sums of one prefix position to one column slot. */
+    private static void addColumn(long[] columnSums, int slot, long[] prefix, int at) {
+        columnSums[slot] += prefix[at];
+        columnSums[slot + 1] += prefix[at + 1];
+        columnSums[slot + 2] += prefix[at + 2];
+        columnSums[slot + 3] += prefix[at + 3];
+    }
+
+    /** Integral of one channel up to a (fractional) row border and column border,
+     * bilinearly interpolated from the 4 surrounding table entries.
+     * Input: The table, its width in slots, the row border index, the column border index and the channel.
+     * Output: The integral as a double (exact up to 2^53). */
+    private static double integral(long[] table, int colSlots, Borders rows, int row, Borders cols, int col, int channel) {
+        double fy = rows.frac()[row];
+        double fx = cols.frac()[col];
+        int top = (row * 2) * colSlots;
+        int bottom = (row * 2 + 1) * colSlots;
+        int left = col * 2;
+        int right = col * 2 + 1;
+        double upper = table[(top + left) * CHANNELS + channel]
+                + fx * (table[(top + right) * CHANNELS + channel] - table[(top + left) * CHANNELS + channel]);
+        double lower = table[(bottom + left) * CHANNELS + channel]
+                + fx * (table[(bottom + right) * CHANNELS + channel] - table[(bottom + left) * CHANNELS + channel]);
+        return upper + fy * (lower - upper);
+    }
+}
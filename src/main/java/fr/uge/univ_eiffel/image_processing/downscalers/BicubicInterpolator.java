@@ -1,5 +1,7 @@
 package fr.uge.univ_eiffel.image_processing.downscalers;
 
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+
 import java.awt.image.BufferedImage;
 
 /** Implementation of bicubic interpolation for image resizing.
@@ -23,14 +25,21 @@ public class BicubicInterpolator implements Downscaler {
     // it tends to become very slow at bigger scales
     /** Resizes the image using a 4x4 pixel neighborhood.
      * Iterates through every destination pixel and computes color based on 16 surrounding source pixels.
-     * Input: Source image and blank destination image.
+     * Input: Source image, blank destination image and the band of destination rows to fill.
      * Output: void (modifies destination). */
-    public void downscale(BufferedImage source, BufferedImage destination) {
+    public void downscaleRows(BufferedImage source, BufferedImage destination, int fromY, int toY) {
+        IntRaster src = IntRaster.of(source);
+        IntRaster dst = IntRaster.writable(destination);
+        if (src != null && dst != null) {
+            downscaleRaster(src, dst, fromY, toY);
+            return;
+        }
+
         double widthRatio = (double) destination.getWidth() / source.getWidth();
         double heightRatio = (double) destination.getHeight() / source.getHeight();
 
-        for (int x = 0; x < destination.getWidth(); x++) {
-            for (int y = 0; y < destination.getHeight(); y++) {
+        for (int y = fromY; y < toY; y++) {
+            for (int x = 0; x < destination.getWidth(); x++) {
 
                 double srcX = x / widthRatio;
                 double srcY = y / heightRatio;
@@ -67,4 +76,91 @@ public class BicubicInterpolator implements Downscaler {
             }
         }
     }
+
+    /** Stores the 4 Hermite coefficients biCubicInterpolate applies to (c1, slope1, c2, slope2) for a distance d.
+     * They only depend on d, so they can be computed once per destination column or row (VectorBicubicInterpolator
+     * uses them too, so both paths share one formula).
+     * Input: The distance d and the table/offset to write the 4 coefficients at.
+     * Output: void (fills weights[at..at+3]). */
+    static void hermiteWeights(double d, double[] weights, int at) {
+        weights[at] = 2 * Math.pow(d, 3) - 3 * Math.pow(d, 2) + 1;
+        weights[at + 1] = Math.pow(d, 3) - 2 * Math.pow(d, 2) + d;
+        weights[at + 2] = -2 * Math.pow(d, 3) + 3 * Math.pow(d, 2);
+        weights[at + 3] = Math.pow(d, 3) - Math.pow(d, 2);
+    }
+
+    /** Same formula as biCubicInterpolate, with the coefficients read from a precomputed table.
+     * Input: 4 color values and the table/offset of the coefficients.
+     * Output: The interpolated color component value. */
+    private static double interpolate(int c0, int c1, int c2, int c3, double[] weights, int at) {
+        double slope1 = (c2 - c0)/2;
+        double slope2 = (c3 - c1)/2;
+        return weights[at] * c1
+                + weights[at + 1] * slope1
+                + weights[at + 2] * c2
+                + weights[at + 3] * slope2;
+    }
+
+    /** Interpolates one channel of one source row along x.
+     * Input: The 4 neighbour pixels of the row, the channel shift and the column coefficients.
+     * Output: The truncated value, like passX in the generic path. */
+    private static int horizontal(int p0, int p1, int p2, int p3, int shift, double[] weights, int at) {
+        return (int) interpolate((p0 >> shift) & 0xFF, (p1 >> shift) & 0xFF,
+                (p2 >> shift) & 0xFF, (p3 >> shift) & 0xFF, weights, at);
+    }
+
+    /** Raster version of downscale, walking the destination row by row on the backing int arrays.
+     * Neighbour columns and their coefficients are tabulated once per destination column,
+     * neighbour rows once per destination row, and the 16 taps are kept in locals so nothing is allocated per pixel.
+     * The arithmetic is the same as the generic path so the output is bit-identical.
+     * Input: Source and destination rasters, and the band of destination rows to fill.
+     * Output: void (modifies destination in place). */
+    private void downscaleRaster(IntRaster src, IntRaster dst, int fromY, int toY) {
+        double widthRatio = (double) dst.width() / src.width();
+        double heightRatio = (double) dst.height() / src.height();
+
+        int[] columns = new int[dst.width() * 4];
+        double[] columnWeights = new double[dst.width() * 4];
+        for (int x = 0; x < dst.width(); x++) {
+            double srcX = x / widthRatio;
+            for (int i = -1; i <= 2; i++) {
+                columns[x * 4 + i + 1] = clamp((int) Math.floor(srcX) + i, src.width() - 1);
+            }
+            hermiteWeights(srcX - columns[x * 4 + 1], columnWeights, x * 4);
+        }
+
+        int[] in = src.data();
+        int[] out = dst.data();
+        int alpha = src.alphaMask();
+        int[] rows = new int[4];
+        double[] rowWeights = new double[4];
+        for (int y = fromY; y < toY; y++) {
+            double srcY = y / heightRatio;
+            int y1 = clamp((int) Math.floor(srcY), src.height() - 1);
+            for (int i = -1; i <= 2; i++) {
+                rows[i + 1] = src.rowOffset(clamp((int) Math.floor(srcY) + i, src.height() - 1));
+            }
+            hermiteWeights(srcY - y1, rowWeights, 0);
+            int dstRow = dst.rowOffset(y);
+
+            for (int x = 0; x < dst.width(); x++) {
+                int c = x * 4;
+                int cx0 = columns[c], cx1 = columns[c + 1], cx2 = columns[c + 2], cx3 = columns[c + 3];
+
+                int argb = 0;
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    int r0 = horizontal(in[rows[0] + cx0] | alpha, in[rows[0] + cx1] | alpha,
+                            in[rows[0] + cx2] | alpha, in[rows[0] + cx3] | alpha, shift, columnWeights, c);
+                    int r1 = horizontal(in[rows[1] + cx0] | alpha, in[rows[1] + cx1] | alpha,
+                            in[rows[1] + cx2] | alpha, in[rows[1] + cx3] | alpha, shift, columnWeights, c);
+                    int r2 = horizontal(in[rows[2] + cx0] | alpha, in[rows[2] + cx1] | alpha,
+                            in[rows[2] + cx2] | alpha, in[rows[2] + cx3] | alpha, shift, columnWeights, c);
+                    int r3 = horizontal(in[rows[3] + cx0] | alpha, in[rows[3] + cx1] | alpha,
+                            in[rows[3] + cx2] | alpha, in[rows[3] + cx3] | alpha, shift, columnWeights, c);
+                    argb |= clamp((int) interpolate(r0, r1, r2, r3, rowWeights, 0), 255) << shift;
+                }
+                out[dstRow + x] = argb;
+            }
+        }
+    }
 }
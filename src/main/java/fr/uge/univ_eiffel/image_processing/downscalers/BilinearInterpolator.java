@@ -1,5 +1,7 @@
 package fr.uge.univ_eiffel.image_processing.downscalers;
 
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+
 import java.awt.image.BufferedImage;
 
 /** Implementation of bilinear interpolation for image resizing.
@@ -24,14 +26,21 @@ public class BilinearInterpolator implements Downscaler {
     /**
      * bilinear interpolation gives a smoother result on average,
      * it takes into account the 4 neighboring pixels to the destination one and averages with coefficients their color values.
-     * Input: Source image and blank destination image.
+     * Input: Source image, blank destination image and the band of destination rows to fill.
      * Output: void (modifies destination in place). */
-    public void downscale(BufferedImage source, BufferedImage destination) {
+    public void downscaleRows(BufferedImage source, BufferedImage destination, int fromY, int toY) {
+        IntRaster src = IntRaster.of(source);
+        IntRaster dst = IntRaster.writable(destination);
+        if (src != null && dst != null) {
+            downscaleRaster(src, dst, fromY, toY);
+            return;
+        }
+
         double widthRatio = (double) destination.getWidth() / source.getWidth();
         double heightRatio = (double) destination.getHeight() / source.getHeight();
 
-        for (int x = 0; x < destination.getWidth(); x++) {
-            for (int y = 0; y < destination.getHeight(); y++) {
+        for (int y = fromY; y < toY; y++) {
+            for (int x = 0; x < destination.getWidth(); x++) {
 
                 double srcX = x / widthRatio;
                 double srcY = y / heightRatio;
@@ -63,4 +72,62 @@ public class BilinearInterpolator implements Downscaler {
             }
         }
     }
+
+    /** Raster version of downscale, walking the destination row by row on the backing int arrays.
+     * Neighbour columns and dx are computed once per destination column, y0/y1/dy once per row,
+     * and the channels are unpacked in registers so no array is allocated per pixel.
+     * The arithmetic is the same as biLinearInterpolate so the output is bit-identical.
+     * Input: Source and destination rasters, and the band of destination rows to fill.
+     * Output: void (modifies destination in place). */
+    private void downscaleRaster(IntRaster src, IntRaster dst, int fromY, int toY) {
+        double widthRatio = (double) dst.width() / src.width();
+        double heightRatio = (double) dst.height() / src.height();
+
+        int[] x0s = new int[dst.width()];
+        int[] x1s = new int[dst.width()];
+        double[] dxs = new double[dst.width()];
+        for (int x = 0; x < dst.width(); x++) {
+            double srcX = x / widthRatio;
+            x0s[x] = clamp((int) Math.floor(srcX), src.width() - 1);
+            x1s[x] = clamp(x0s[x] + 1, src.width() - 1);
+            dxs[x] = srcX - x0s[x];
+        }
+
+        int[] in = src.data();
+        int[] out = dst.data();
+        int alpha = src.alphaMask();
+        for (int y = fromY; y < toY; y++) {
+            double srcY = y / heightRatio;
+            int y0 = clamp((int) Math.floor(srcY), src.height() - 1);
+            int y1 = clamp(y0 + 1, src.height() - 1);
+            double dy = srcY - y0;
+            int row0 = src.rowOffset(y0);
+            int row1 = src.rowOffset(y1);
+            int dstRow = dst.rowOffset(y);
+
+            for (int x = 0; x < dst.width(); x++) {
+                double dx = dxs[x];
+                // same grouping as biLinearInterpolate: ((1 - dx) * (1 - dy)) * c00 + ...
+                double w00 = (1 - dx) * (1 - dy);
+                double w10 = dx * (1 - dy);
+                double w01 = (1 - dx) * dy;
+                double w11 = dx * dy;
+
+                int p00 = in[row0 + x0s[x]] | alpha;
+                int p10 = in[row0 + x1s[x]] | alpha;
+                int p01 = in[row1 + x0s[x]] | alpha;
+                int p11 = in[row1 + x1s[x]] | alpha;
+
+                int argb = 0;
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    double interpolated = w00 * ((p00 >> shift) & 0xFF)
+                            + w10 * ((p10 >> shift) & 0xFF)
+                            + w01 * ((p01 >> shift) & 0xFF)
+                            + w11 * ((p11 >> shift) & 0xFF);
+                    argb |= clamp((int) interpolated, 255) << shift;
+                }
+                out[dstRow + x] = argb;
+            }
+        }
+    }
 }
@@ -33,9 +33,35 @@ public interface Downscaler {
         return (argb[0] << 24) | (argb[1] << 16) | (argb[2] << 8) | argb[3];
     }
 
+    /** How many source pixels per destination pixel (along each axis) the algorithm needs to give its best result.
+     * Used by ImageUtils to decode huge inputs at a reduced resolution instead of materializing every pixel.
+     * Input: None.
+     * Output: The oversampling factor, at least 1. */
+    default int oversampling() {
+        return 2;
+    }
+
+    /** Stable name of the algorithm and its settings, two downscalers with the same id give the same pixels.
+     * Used to key cached results.
+     * Input: None.
+     * Output: The identifier (the class name unless the algorithm has settings). */
+    default String id() {
+        return getClass().getName();
+    }
+
     /** Core method to resize an image.
-     * Implementations define the specific algorithm (Linear, Cubic, etc.).
+     * Renders every destination row, implementations only have to provide downscaleRows.
      * Input: Source image and the blank destination image (with target dims).
      * Output: void (modifies destination in place). */
-    void downscale(BufferedImage source, BufferedImage destination);
+    default void downscale(BufferedImage source, BufferedImage destination) {
+        downscaleRows(source, destination, 0, destination.getHeight());
+    }
+
+    /** Resizes only a horizontal band of the destination.
+     * Implementations define the specific algorithm (Linear, Cubic, etc.). The scale is always computed from the
+     * full source and destination sizes, so rendering all bands gives exactly the same pixels as downscale.
+     * Calls on disjoint bands must be safe to run concurrently (see ParallelDownscaler).
+     * Input: Source image, destination image, first destination row (inclusive) and last row (exclusive).
+     * Output: void (modifies destination rows [fromY, toY) in place). */
+    void downscaleRows(BufferedImage source, BufferedImage destination, int fromY, int toY);
 }
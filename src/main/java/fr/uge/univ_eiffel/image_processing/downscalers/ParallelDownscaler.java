@@ -0,0 +1,116 @@
+package fr.uge.univ_eiffel.image_processing.downscalers;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Decorator running any Downscaler on several cores.
+ * The destination is split into horizontal bands of rows that are rendered concurrently on a ForkJoinPool.
+ * Every destination pixel only depends on the source, so the result is identical to the sequential one.
+ * Fields: The wrapped algorithm, the pool running the bands, whether we own that pool, and the minimal band height. */
+public class ParallelDownscaler implements Downscaler, AutoCloseable {
+
+    static final int DEFAULT_BAND_HEIGHT = 16;
+
+    private final Downscaler delegate;
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final int bandHeight;
+
+    /** Runs the delegate on the shared common pool.
+     * Input: The algorithm to parallelize.
+     * Output: A new ParallelDownscaler. */
+    public ParallelDownscaler(Downscaler delegate) {
+        this(delegate, ForkJoinPool.commonPool(), false, DEFAULT_BAND_HEIGHT);
+    }
+
+    /** Runs the delegate on a dedicated pool of the given size (close() releases it).
+     * Input: The algorithm to parallelize and the number of worker threads.
+     * Output: A new ParallelDownscaler. */
+    public ParallelDownscaler(Downscaler delegate, int parallelism) {
+        this(delegate, new ForkJoinPool(parallelism), true, DEFAULT_BAND_HEIGHT);
+    }
+
+    /** Runs the delegate on a caller-provided pool with a custom band height.
+     * Input: The algorithm, the pool (left open by close()) and the minimal number of rows per task.
+     * Output: A new ParallelDownscaler. */
+    public ParallelDownscaler(Downscaler delegate, ForkJoinPool pool, int bandHeight) {
+        this(delegate, pool, false, bandHeight);
+    }
+
+    private ParallelDownscaler(Downscaler delegate, ForkJoinPool pool, boolean ownsPool, int bandHeight) {
+        if (delegate == null || pool == null) {
+            throw new IllegalArgumentException("delegate and pool cannot be null");
+        }
+        if (bandHeight < 1) {
+            throw new IllegalArgumentException("bandHeight must be positive");
+        }
+        this.delegate = delegate;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.bandHeight = bandHeight;
+    }
+
+    /** Splits a band of rows in two until it is small enough, then renders it with the delegate.
+     * Fields: The images and the band [fromY, toY) this task is responsible for. */
+    private final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage source;
+        private final BufferedImage destination;
+        private final int fromY;
+        private final int toY;
+
+        Band(BufferedImage source, BufferedImage destination, int fromY, int toY) {
+            this.source = source;
+            this.destination = destination;
+            this.fromY = fromY;
+            this.toY = toY;
+        }
+
+        @Override
+        protected void compute() {
+            if (toY - fromY <= bandHeight) {
+                delegate.downscaleRows(source, destination, fromY, toY);
+                return;
+            }
+            int middle = (fromY + toY) >>> 1;
+            invokeAll(new Band(source, destination, fromY, middle), new Band(source, destination, middle, toY));
+        }
+    }
+
+    /** Same pixels as the wrapped algorithm, so the same id. */
+    @Override
+    public String id() {
+        return delegate.id();
+    }
+
+    @Override
+    public int oversampling() {
+        return delegate.oversampling();
+    }
+
+    /** Renders the requested rows as parallel bands.
+     * Destinations packing several pixels per array element (1/2/4 bit images) are rendered sequentially,
+     * since two bands could then write the same element.
+     * Input: Source image, destination image and the band of destination rows to fill.
+     * Output: void (modifies destination in place). */
+    public void downscaleRows(BufferedImage source, BufferedImage destination, int fromY, int toY) {
+        if (toY - fromY <= bandHeight || destination.getSampleModel() instanceof MultiPixelPackedSampleModel) {
+            delegate.downscaleRows(source, destination, fromY, toY);
+            return;
+        }
+        pool.invoke(new Band(source, destination, fromY, toY));
+    }
+
+    /** Shuts down the pool if it was created by this decorator.
+     * Input: None.
+     * Output: void. */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+}
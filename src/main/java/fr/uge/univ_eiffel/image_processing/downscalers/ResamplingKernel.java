@@ -0,0 +1,67 @@
+package fr.uge.univ_eiffel.image_processing.downscalers;
+
+/** A 1D reconstruction filter used by SeparableResampler.
+ * The weight function is evaluated at the distance (in source pixels) between a tap and the sampled position,
+ * and is assumed to be zero outside [-radius, radius].
+ * Implement this interface to plug any other filter in. */
+public interface ResamplingKernel {
+
+    /** Half-width of the filter, in source pixels at scale 1.
+     * Input: None.
+     * Output: The radius (2 for cubics, 3 for Lanczos-3). */
+    double radius();
+
+    /** Filter value at a given distance.
+     * Input: Signed distance from the sampled position.
+     * Output: The (unnormalized) weight. */
+    double weight(double x);
+
+    /** Sharp cubic, same family as the BicubicInterpolator (B = 0, C = 0.5). */
+    ResamplingKernel CATMULL_ROM = new Cubic(0, 0.5);
+
+    /** Mitchell-Netravali cubic (B = C = 1/3), a good compromise between ringing and blur. */
+    ResamplingKernel MITCHELL = new Cubic(1.0 / 3, 1.0 / 3);
+
+    /** Windowed sinc with 3 lobes, the sharpest of the three but prone to slight ringing. */
+    ResamplingKernel LANCZOS3 = new Lanczos(3);
+
+    /** The (B, C) family of cubic filters from Mitchell and Netravali.
+     * Fields: The B and C parameters. */
+    record Cubic(double b, double c) implements ResamplingKernel {
+
+        public double radius() {
+            return 2;
+        }
+
+        public double weight(double x) {
+            x = Math.abs(x);
+            if (x < 1) {
+                return ((12 - 9 * b - 6 * c) * x * x * x + (-18 + 12 * b + 6 * c) * x * x + (6 - 2 * b)) / 6;
+            }
+            if (x < 2) {
+                return ((-b - 6 * c) * x * x * x + (6 * b + 30 * c) * x * x + (-12 * b - 48 * c) * x + (8 * b + 24 * c)) / 6;
+            }
+            return 0;
+        }
+    }
+
+    /** sinc(x) * sinc(x / lobes), cut at +/- lobes.
+     * Fields: The number of lobes. */
+    record Lanczos(int lobes) implements ResamplingKernel {
+
+        public double radius() {
+            return lobes;
+        }
+
+        public double weight(double x) {
+            if (x == 0) {
+                return 1;
+            }
+            if (Math.abs(x) >= lobes) {
+                return 0;
+            }
+            double px = Math.PI * x;
+            return lobes * Math.sin(px) * Math.sin(px / lobes) / (px * px);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package fr.uge.univ_eiffel.image_processing.downscalers;
+
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/** Two-pass separable resampler with a pluggable kernel (Catmull-Rom, Mitchell, Lanczos-3...).
+ * The image is first filtered horizontally into an intermediate buffer, then vertically.
+ * The source indices and normalized weights of every destination column and row are computed once,
+ * so the inner loops are plain multiply-adds. When shrinking, the kernel is stretched by the scale factor
+ * so every source pixel contributes (no aliasing), which the point-sampling downscalers cannot do.
+ * Fields: The kernel in use. */
+public class SeparableResampler implements Downscaler {
+
+    private final ResamplingKernel kernel;
+
+    public SeparableResampler(ResamplingKernel kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("kernel cannot be null");
+        }
+        this.kernel = kernel;
+    }
+
+    /** Precomputed taps of one axis: for destination index i, its taps are at [i * taps, (i + 1) * taps).
+     * Edge taps are clamped to the border pixel, unused taps have a weight of 0.
+     * Fields: The number of taps per destination index, the source indices and their weights. */
+    record WeightTable(int taps, int[] indices, float[] weights) {
+
+        /** Builds the table mapping srcSize samples to dstSize samples with pixel centers aligned.
+         * Input: The kernel, the source size and the destination size along the axis.
+         * Output: The filled WeightTable. */
+        static WeightTable build(ResamplingKernel kernel, int srcSize, int dstSize) {
+            double scale = (double) srcSize / dstSize;
+            // when shrinking, widen the kernel so it covers every source pixel of the footprint
+            double filterScale = Math.max(1, scale);
+            double support = kernel.radius() * filterScale;
+            int taps = (int) Math.ceil(support * 2) + 1;
+
+            int[] indices = new int[dstSize * taps];
+            float[] weights = new float[dstSize * taps];
+            double[] raw = new double[taps];
+            for (int i = 0; i < dstSize; i++) {
+                double center = (i + 0.5) * scale;
+                int left = (int) Math.floor(center - support);
+                double sum = 0;
+                for (int k = 0; k < taps; k++) {
+                    int j = left + k;
+                    raw[k] = kernel.weight((j + 0.5 - center) / filterScale);
+                    sum += raw[k];
+                }
+                for (int k = 0; k < taps; k++) {
+                    indices[i * taps + k] = Math.max(0, Math.min(srcSize - 1, left + k));
+                    weights[i * taps + k] = (float) (sum == 0 ? 0 : raw[k] / sum);
+                }
+            }
+            return new WeightTable(taps, indices, weights);
+        }
+
+        /** Smallest source index used by destination indices [from, to). */
+        int first(int from, int to) {
+            int min = Integer.MAX_VALUE;
+            for (int i = from * taps; i < to * taps; i++) {
+                min = Math.min(min, indices[i]);
+            }
+            return min;
+        }
+
+        /** Largest source index used by destination indices [from, to). */
+        int last(int from, int to) {
+            int max = Integer.MIN_VALUE;
+            for (int i = from * taps; i < to * taps; i++) {
+                max = Math.max(max, indices[i]);
+            }
+            return max;
+        }
+    }
+
+    /** The kernel is part of the id, records print their parameters. */
+    @Override
+    public String id() {
+        return getClass().getName() + "[" + kernel + "]";
+    }
+
+    /** The kernel needs its whole support filled with distinct source pixels. */
+    @Override
+    public int oversampling() {
+        return (int) Math.ceil(kernel.radius());
+    }
+
+    /** Rounds a filtered channel value back to a byte. */
+    private static int toChannel(float value) {
+        return Math.max(0, Math.min(255, (int) (value + 0.5f)));
+    }
+
+    /** Resamples a band of destination rows.
+     * Only the source rows that band needs go through the horizontal pass, so bands can run in parallel.
+     * Input: Source image, destination image and the band of destination rows to fill.
+     * Output: void (modifies destination in place). */
+    public void downscaleRows(BufferedImage source, BufferedImage destination, int fromY, int toY) {
+        if (fromY >= toY) {
+            return;
+        }
+        int srcWidth = source.getWidth();
+        int dstWidth = destination.getWidth();
+        WeightTable columns = WeightTable.build(kernel, srcWidth, dstWidth);
+        WeightTable rows = WeightTable.build(kernel, source.getHeight(), destination.getHeight());
+
+        int firstRow = rows.first(fromY, toY);
+        int lastRow = rows.last(fromY, toY);
+
+        // horizontal pass: every needed source row becomes dstWidth * 4 channel floats (A, R, G, B)
+        IntRaster src = IntRaster.of(source);
+        int[] line = new int[srcWidth];
+        float[] horizontal = new float[(lastRow - firstRow + 1) * dstWidth * 4];
+        for (int r = firstRow; r <= lastRow; r++) {
+            int[] pixels;
+            int base;
+            int alpha;
+            if (src != null) {
+                pixels = src.data();
+                base = src.rowOffset(r);
+                alpha = src.alphaMask();
+            } else {
+                source.getRGB(0, r, srcWidth, 1, line, 0, srcWidth);
+                pixels = line;
+                base = 0;
+                alpha = 0;
+            }
+            int out = (r - firstRow) * dstWidth * 4;
+            for (int x = 0; x < dstWidth; x++) {
+                float a = 0, red = 0, g = 0, b = 0;
+                int t = x * columns.taps();
+                for (int k = 0; k < columns.taps(); k++, t++) {
+                    float w = columns.weights()[t];
+                    int p = pixels[base + columns.indices()[t]] | alpha;
+                    a += w * ((p >>> 24) & 0xFF);
+                    red += w * ((p >> 16) & 0xFF);
+                    g += w * ((p >> 8) & 0xFF);
+                    b += w * (p & 0xFF);
+                }
+                horizontal[out++] = a;
+                horizontal[out++] = red;
+                horizontal[out++] = g;
+                horizontal[out++] = b;
+            }
+        }
+
+        // vertical pass: accumulate the weighted filtered rows, contiguous so the loop stays cache friendly
+        IntRaster dst = IntRaster.writable(destination);
+        float[] sums = new float[dstWidth * 4];
+        int[] result = new int[dstWidth];
+        for (int y = fromY; y < toY; y++) {
+            Arrays.fill(sums, 0);
+            for (int t = y * rows.taps(); t < (y + 1) * rows.taps(); t++) {
+                float w = rows.weights()[t];
+                if (w == 0) {
+                    continue;
+                }
+                int at = (rows.indices()[t] - firstRow) * dstWidth * 4;
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += w * horizontal[at + i];
+                }
+            }
+            for (int x = 0, i = 0; x < dstWidth; x++, i += 4) {
+                result[x] = (toChannel(sums[i]) << 24) | (toChannel(sums[i + 1]) << 16)
+                        | (toChannel(sums[i + 2]) << 8) | toChannel(sums[i + 3]);
+            }
+            if (dst != null) {
+                System.arraycopy(result, 0, dst.data(), dst.rowOffset(y), dstWidth);
+            } else {
+                destination.setRGB(0, y, dstWidth, 1, result, 0, dstWidth);
+            }
+        }
+    }
+}
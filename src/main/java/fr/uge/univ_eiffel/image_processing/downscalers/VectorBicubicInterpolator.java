@@ -0,0 +1,140 @@
+package fr.uge.univ_eiffel.image_processing.downscalers;
+
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.awt.image.BufferedImage;
+
+/** SIMD version of the BicubicInterpolator built on the (incubating) Java Vector API.
+ * Several destination pixels of a row are computed per vector op. The 16 taps of every pixel of the row are first
+ * copied into contiguous scratch arrays through the per-tap column tables, then the 4 row passes use per-column
+ * Hermite coefficients and the final pass uses the row coefficients.
+ * The lanes are doubles like the scalar code: with floats, the truncation between the two passes drifts by up to 2.
+ * Do not instantiate directly, go through VectorSupport which checks the module is available.
+ * Fields: The double species, the int species with the same lane count, and the scalar fallback. */
+public class VectorBicubicInterpolator implements Downscaler {
+
+    static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    private final BicubicInterpolator scalar = new BicubicInterpolator();
+
+    /** Same contract as BicubicInterpolator.downscaleRows, images that are not int rasters use the scalar code.
+     * Input: Source image, destination image and the band of destination rows to fill.
+     * Output: void (modifies destination in place). */
+    public void downscaleRows(BufferedImage source, BufferedImage destination, int fromY, int toY) {
+        IntRaster src = IntRaster.of(source);
+        IntRaster dst = IntRaster.writable(destination);
+        if (src == null || dst == null) {
+            scalar.downscaleRows(source, destination, fromY, toY);
+            return;
+        }
+
+        double widthRatio = (double) dst.width() / src.width();
+        double heightRatio = (double) dst.height() / src.height();
+
+        // one index table and one coefficient table per tap, padded to whole vectors
+        int width = dst.width();
+        int padded = (width + INTS.length() - 1) / INTS.length() * INTS.length();
+        int[][] columns = new int[4][width];
+        double[][] columnWeights = new double[4][padded];
+        double[] weights = new double[4];
+        for (int x = 0; x < width; x++) {
+            double srcX = x / widthRatio;
+            for (int i = -1; i <= 2; i++) {
+                columns[i + 1][x] = clamp((int) Math.floor(srcX) + i, src.width() - 1);
+            }
+            BicubicInterpolator.hermiteWeights(srcX - columns[1][x], weights, 0);
+            for (int k = 0; k < 4; k++) {
+                columnWeights[k][x] = weights[k];
+            }
+        }
+
+        int[] in = src.data();
+        int[] out = dst.data();
+        int alpha = src.alphaMask();
+        int[] rows = new int[4];
+        double[] rowWeights = new double[4];
+        int[][][] taps = new int[4][4][padded];
+        for (int y = fromY; y < toY; y++) {
+            double srcY = y / heightRatio;
+            int y1 = clamp((int) Math.floor(srcY), src.height() - 1);
+            for (int i = -1; i <= 2; i++) {
+                rows[i + 1] = src.rowOffset(clamp((int) Math.floor(srcY) + i, src.height() - 1));
+            }
+            BicubicInterpolator.hermiteWeights(srcY - y1, rowWeights, 0);
+            double v0 = rowWeights[0], v1 = rowWeights[1], v2 = rowWeights[2], v3 = rowWeights[3];
+            int dstRow = dst.rowOffset(y);
+
+            for (int i = 0; i < 4; i++) {
+                for (int k = 0; k < 4; k++) {
+                    int[] tap = taps[i][k];
+                    int[] column = columns[k];
+                    for (int x = 0; x < width; x++) {
+                        tap[x] = in[rows[i] + column[x]] | alpha;
+                    }
+                }
+            }
+
+            for (int x = 0; x < width; x += INTS.length()) {
+                DoubleVector w0 = DoubleVector.fromArray(DOUBLES, columnWeights[0], x);
+                DoubleVector w1 = DoubleVector.fromArray(DOUBLES, columnWeights[1], x);
+                DoubleVector w2 = DoubleVector.fromArray(DOUBLES, columnWeights[2], x);
+                DoubleVector w3 = DoubleVector.fromArray(DOUBLES, columnWeights[3], x);
+
+                IntVector argb = IntVector.zero(INTS);
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    // vectors are kept in locals (no arrays) so the JIT never has to box them
+                    IntVector pass0 = horizontal(taps[0], x, shift, w0, w1, w2, w3);
+                    IntVector pass1 = horizontal(taps[1], x, shift, w0, w1, w2, w3);
+                    IntVector pass2 = horizontal(taps[2], x, shift, w0, w1, w2, w3);
+                    IntVector pass3 = horizontal(taps[3], x, shift, w0, w1, w2, w3);
+                    // vertical pass, the row coefficients are the same for the whole block
+                    DoubleVector value = toDouble(pass1).mul(v0)
+                            .add(toDouble(halve(pass2.sub(pass0))).mul(v1))
+                            .add(toDouble(pass2).mul(v2))
+                            .add(toDouble(halve(pass3.sub(pass1))).mul(v3));
+                    argb = argb.or(truncate(value).max(0).min(255).lanewise(VectorOperators.LSHL, shift));
+                }
+                if (x + INTS.length() <= width) {
+                    argb.intoArray(out, dstRow + x);
+                } else {
+                    argb.intoArray(out, dstRow + x, INTS.indexInRange(x, width));
+                }
+            }
+        }
+    }
+
+    /** Interpolates one channel of one source row along x for a block of destination pixels, like passX.
+     * Input: The 4 gathered taps of the row, the block start, the channel shift and the column coefficients.
+     * Output: The truncated values. */
+    private static IntVector horizontal(int[][] row, int x, int shift, DoubleVector w0, DoubleVector w1, DoubleVector w2, DoubleVector w3) {
+        IntVector c0 = IntVector.fromArray(INTS, row[0], x).lanewise(VectorOperators.LSHR, shift).and(0xFF);
+        IntVector c1 = IntVector.fromArray(INTS, row[1], x).lanewise(VectorOperators.LSHR, shift).and(0xFF);
+        IntVector c2 = IntVector.fromArray(INTS, row[2], x).lanewise(VectorOperators.LSHR, shift).and(0xFF);
+        IntVector c3 = IntVector.fromArray(INTS, row[3], x).lanewise(VectorOperators.LSHR, shift).and(0xFF);
+        return truncate(w0.mul(toDouble(c1))
+                .add(w1.mul(toDouble(halve(c2.sub(c0)))))
+                .add(w2.mul(toDouble(c2)))
+                .add(w3.mul(toDouble(halve(c3.sub(c1))))));
+    }
+
+    /** Integer division by 2 rounding toward zero, like the (c2 - c0)/2 of the scalar code. */
+    private static IntVector halve(IntVector values) {
+        return values.add(values.lanewise(VectorOperators.LSHR, 31)).lanewise(VectorOperators.ASHR, 1);
+    }
+
+    private static DoubleVector toDouble(IntVector values) {
+        return (DoubleVector) values.convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+
+    /** Truncates double lanes toward zero, like an (int) cast. */
+    private static IntVector truncate(DoubleVector values) {
+        return (IntVector) values.convertShape(VectorOperators.D2I, INTS, 0);
+    }
+}
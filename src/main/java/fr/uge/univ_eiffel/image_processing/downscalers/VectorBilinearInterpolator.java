@@ -0,0 +1,136 @@
+package fr.uge.univ_eiffel.image_processing.downscalers;
+
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.awt.image.BufferedImage;
+
+/** SIMD version of the BilinearInterpolator built on the (incubating) Java Vector API.
+ * Each vector op handles several destination pixels of a row at once. The 4 neighbours of every pixel of the row are
+ * first copied into contiguous scratch arrays with the precomputed column tables (the JDK 17 vector gathers are
+ * neither fast nor reliable), then every channel is weighted in float lanes.
+ * Results match the scalar code within +/-1 per channel (float instead of double weights).
+ * Do not instantiate directly, go through VectorSupport which checks the module is available.
+ * Fields: The float species used for the weights, the int species with the same lane count, and the scalar fallback. */
+public class VectorBilinearInterpolator implements Downscaler {
+
+    static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    private final BilinearInterpolator scalar = new BilinearInterpolator();
+
+    /** Same contract as BilinearInterpolator.downscaleRows, images that are not int rasters use the scalar code.
+     * Input: Source image, destination image and the band of destination rows to fill.
+     * Output: void (modifies destination in place). */
+    public void downscaleRows(BufferedImage source, BufferedImage destination, int fromY, int toY) {
+        IntRaster src = IntRaster.of(source);
+        IntRaster dst = IntRaster.writable(destination);
+        if (src == null || dst == null) {
+            scalar.downscaleRows(source, destination, fromY, toY);
+            return;
+        }
+
+        double widthRatio = (double) dst.width() / src.width();
+        double heightRatio = (double) dst.height() / src.height();
+
+        // tables and scratch rows padded to whole vectors so the last block can be loaded in one go
+        int width = dst.width();
+        int padded = paddedLength(width);
+        int[] x0s = new int[width];
+        int[] x1s = new int[width];
+        float[] dxs = new float[padded];
+        for (int x = 0; x < width; x++) {
+            double srcX = x / widthRatio;
+            x0s[x] = clamp((int) Math.floor(srcX), src.width() - 1);
+            x1s[x] = clamp(x0s[x] + 1, src.width() - 1);
+            dxs[x] = (float) (srcX - x0s[x]);
+        }
+        int[] top0 = new int[padded], top1 = new int[padded];
+        int[] bottom0 = new int[padded], bottom1 = new int[padded];
+
+        int[] in = src.data();
+        int[] out = dst.data();
+        int alpha = src.alphaMask();
+        FloatVector one = FloatVector.broadcast(FLOATS, 1f);
+        for (int y = fromY; y < toY; y++) {
+            double srcY = y / heightRatio;
+            int y0 = clamp((int) Math.floor(srcY), src.height() - 1);
+            int y1 = clamp(y0 + 1, src.height() - 1);
+            float dy = (float) (srcY - y0);
+            int row0 = src.rowOffset(y0);
+            int row1 = src.rowOffset(y1);
+            int dstRow = dst.rowOffset(y);
+
+            for (int x = 0; x < width; x++) {
+                top0[x] = in[row0 + x0s[x]] | alpha;
+                top1[x] = in[row0 + x1s[x]] | alpha;
+                bottom0[x] = in[row1 + x0s[x]] | alpha;
+                bottom1[x] = in[row1 + x1s[x]] | alpha;
+            }
+
+            for (int x = 0; x < width; x += INTS.length()) {
+                FloatVector dx = FloatVector.fromArray(FLOATS, dxs, x);
+                FloatVector w00 = one.sub(dx).mul(1 - dy);
+                FloatVector w10 = dx.mul(1 - dy);
+                FloatVector w01 = one.sub(dx).mul(dy);
+                FloatVector w11 = dx.mul(dy);
+
+                IntVector p00 = IntVector.fromArray(INTS, top0, x);
+                IntVector p10 = IntVector.fromArray(INTS, top1, x);
+                IntVector p01 = IntVector.fromArray(INTS, bottom0, x);
+                IntVector p11 = IntVector.fromArray(INTS, bottom1, x);
+
+                IntVector argb = IntVector.zero(INTS);
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    FloatVector interpolated = w00.mul(channel(p00, shift))
+                            .add(w10.mul(channel(p10, shift)))
+                            .add(w01.mul(channel(p01, shift)))
+                            .add(w11.mul(channel(p11, shift)));
+                    argb = argb.or(toByte(interpolated).lanewise(VectorOperators.LSHL, shift));
+                }
+                store(argb, out, dstRow, x, width);
+            }
+        }
+    }
+
+    /** Writes a block of results, only the lanes that fall inside the row for the last block.
+     * Input: The packed pixels, the destination array, the row offset, the block start and the row width.
+     * Output: void. */
+    static void store(IntVector argb, int[] out, int dstRow, int x, int width) {
+        if (x + INTS.length() <= width) {
+            argb.intoArray(out, dstRow + x);
+        } else {
+            argb.intoArray(out, dstRow + x, INTS.indexInRange(x, width));
+        }
+    }
+
+    /** Rounds a table length up to a whole number of vectors. */
+    static int paddedLength(int length) {
+        return (length + INTS.length() - 1) / INTS.length() * INTS.length();
+    }
+
+    /** Extracts one 8 bit channel of packed pixels into float lanes.
+     * Input: Packed ARGB lanes and the channel shift (24, 16, 8 or 0).
+     * Output: The channel values as floats. */
+    static FloatVector channel(IntVector pixels, int shift) {
+        return (FloatVector) pixels.lanewise(VectorOperators.LSHR, shift).and(0xFF)
+                .convert(VectorOperators.I2F, 0);
+    }
+
+    /** Truncates float lanes like an (int) cast and clamps them to 0-255.
+     * Input: The interpolated values.
+     * Output: int lanes between 0 and 255. */
+    static IntVector toByte(FloatVector values) {
+        return truncate(values).max(0).min(255);
+    }
+
+    /** Truncates float lanes toward zero, like an (int) cast.
+     * Input: The values.
+     * Output: The int lanes. */
+    static IntVector truncate(FloatVector values) {
+        return (IntVector) values.convert(VectorOperators.F2I, 0);
+    }
+}
@@ -0,0 +1,54 @@
+package fr.uge.univ_eiffel.image_processing.downscalers;
+
+/** Entry point for the SIMD downscalers.
+ * The Java Vector API is still an incubator module: it is only resolved when the JVM is started with
+ * --add-modules jdk.incubator.vector. This class checks for it at runtime and hands out the scalar
+ * implementations otherwise, so callers never have to care.
+ * Fields: None (static utility class). */
+public final class VectorSupport {
+
+    private static final String MODULE = "jdk.incubator.vector";
+
+    private VectorSupport() {
+    }
+
+    /** Tells whether the vector module is resolved in this JVM.
+     * Input: None.
+     * Output: True if the vectorized downscalers can be used. */
+    public static boolean isAvailable() {
+        return ModuleLayer.boot().findModule(MODULE).isPresent();
+    }
+
+    /** Bilinear downscaler, vectorized when possible.
+     * Input: None.
+     * Output: A VectorBilinearInterpolator, or a BilinearInterpolator as fallback. */
+    public static Downscaler bilinear() {
+        Downscaler vector = load("VectorBilinearInterpolator");
+        return vector != null ? vector : new BilinearInterpolator();
+    }
+
+    /** Bicubic downscaler, vectorized when possible.
+     * Input: None.
+     * Output: A VectorBicubicInterpolator, or a BicubicInterpolator as fallback. */
+    public static Downscaler bicubic() {
+        Downscaler vector = load("VectorBicubicInterpolator");
+        return vector != null ? vector : new BicubicInterpolator();
+    }
+
+    /** Instantiates a vector implementation by reflection, so its class (and the module) is only linked if available.
+     * Input: Simple name of the class in this package.
+     * Output: The instance, or null if the module or the CPU support is missing. */
+    private static Downscaler load(String simpleName) {
+        if (!isAvailable()) {
+            return null;
+        }
+        try {
+            Class<?> type = Class.forName(VectorSupport.class.getPackageName() + "." + simpleName);
+            return (Downscaler) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // e.g. no usable vector shape on this CPU, the scalar code is always correct
+            System.err.println("Vector API unavailable (" + e + "), using scalar " + simpleName);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+/** The ways two colors can be compared when looking for the closest catalog color.
+ * Every metric maps a color to 3 coordinates where the plain euclidean distance is the wanted one,
+ * so the palette can be converted once and the search only does squared differences.
+ * Fields: None (one constant per metric). */
+public enum ColorDistance {
+
+    /** Straight distance between the sRGB components, cheap but far from what the eye sees. */
+    RGB_EUCLIDEAN {
+        @Override
+        public void coordinates(int rgb, double[] out) {
+            out[0] = (rgb >> 16) & 0xFF;
+            out[1] = (rgb >> 8) & 0xFF;
+            out[2] = rgb & 0xFF;
+        }
+    },
+
+    /** CIE76 Delta E: euclidean distance in CIELAB (D65 white), much closer to perceived differences. */
+    CIELAB {
+        @Override
+        public void coordinates(int rgb, double[] out) {
+            double r = linear((rgb >> 16) & 0xFF);
+            double g = linear((rgb >> 8) & 0xFF);
+            double b = linear(rgb & 0xFF);
+
+            // sRGB -> XYZ, normalized by the D65 reference white
+            double x = (0.4124564 * r + 0.3575761 * g + 0.1804375 * b) / 0.95047;
+            double y = 0.2126729 * r + 0.7151522 * g + 0.0721750 * b;
+            double z = (0.0193339 * r + 0.1191920 * g + 0.9503041 * b) / 1.08883;
+
+            double fx = f(x), fy = f(y), fz = f(z);
+            out[0] = 116 * fy - 16;
+            out[1] = 500 * (fx - fy);
+            out[2] = 200 * (fy - fz);
+        }
+    };
+
+    /** Converts a color into the space of this metric.
+     * Input: A packed RGB color (alpha is ignored) and a 3 slot array to fill.
+     * Output: void (out holds the coordinates). */
+    public abstract void coordinates(int rgb, double[] out);
+
+    /** Squared distance between two colors under this metric.
+     * Input: Two packed RGB colors.
+     * Output: The squared distance. */
+    public double distance2(int rgbA, int rgbB) {
+        double[] a = new double[3];
+        double[] b = new double[3];
+        coordinates(rgbA, a);
+        coordinates(rgbB, b);
+        double d0 = a[0] - b[0], d1 = a[1] - b[1], d2 = a[2] - b[2];
+        return d0 * d0 + d1 * d1 + d2 * d2;
+    }
+
+    /** Undoes the sRGB gamma of one 8 bit component. */
+    private static double linear(int component) {
+        double c = component / 255.0;
+        return c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+
+    /** The cube root part of the XYZ -> Lab conversion. */
+    private static double f(double t) {
+        return t > 216.0 / 24389 ? Math.cbrt(t) : (24389.0 / 27 * t + 16) / 116;
+    }
+}
@@ -0,0 +1,15 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+import java.awt.image.BufferedImage;
+
+/** Common interface of the dithering stages.
+ * A ditherer maps an image onto the palette of a PaletteLut like PaletteQuantizer does, but spreads the color error
+ * over the neighbouring pixels so smooth gradients do not turn into flat bands of brick colors.
+ * Fields: None (interface). */
+public interface Ditherer {
+
+    /** Replaces the colors of an image by palette colors, in place. Alpha is left untouched.
+     * Input: The image and the table giving the nearest palette color.
+     * Output: The same image, for chaining. */
+    BufferedImage dither(BufferedImage img, PaletteLut lut);
+}
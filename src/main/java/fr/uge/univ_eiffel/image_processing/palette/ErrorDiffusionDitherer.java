@@ -0,0 +1,251 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** Error diffusion dithering (Floyd-Steinberg or Atkinson) scheduled as a wavefront over several cores.
+ * A pixel only receives error from the pixels before it on its row and from a few columns around it on the rows
+ * above, so row y can run as soon as row y-1 is a couple of columns ahead of it. Workers claim rows in order and
+ * publish how many pixels of their row are final; a row then only waits for the row above to be far enough.
+ * The result is exactly the one of the sequential scan, whatever the number of threads.
+ * Error going down is kept in a ring of row buffers, error going right stays in the worker.
+ * Fields: The kernel, the pool running the workers, and whether we own that pool. */
+public class ErrorDiffusionDitherer implements Ditherer, AutoCloseable {
+
+    /** The supported diffusion patterns. Each tap sends weight times the error to the pixel (x + dx, y + dy).
+     * Fields: The tap offsets and weights, and the largest dy. */
+    public enum Kernel {
+        /** Classic 7/16, 3/16, 5/16, 1/16 split over the 4 next pixels. */
+        FLOYD_STEINBERG(new int[] { 1, -1, 0, 1 }, new int[] { 0, 1, 1, 1 },
+                new float[] { 7 / 16f, 3 / 16f, 5 / 16f, 1 / 16f }),
+        /** Spreads only 6/8 of the error over 6 pixels, less smearing and more contrast on small mosaics. */
+        ATKINSON(new int[] { 1, 2, -1, 0, 1, 0 }, new int[] { 0, 0, 1, 1, 1, 2 },
+                new float[] { 1 / 8f, 1 / 8f, 1 / 8f, 1 / 8f, 1 / 8f, 1 / 8f });
+
+        private final int[] dx;
+        private final int[] dy;
+        private final float[] weights;
+        private final int depth;
+
+        Kernel(int[] dx, int[] dy, float[] weights) {
+            this.dx = dx;
+            this.dy = dy;
+            this.weights = weights;
+            int depth = 0;
+            for (int d : dy) {
+                depth = Math.max(depth, d);
+            }
+            this.depth = depth;
+        }
+
+        /** How many pixels of row y - d must be final before pixel x of row y can be computed, minus x.
+         * Input: The distance d to the row above (1 to depth).
+         * Output: The lag. */
+        int lag(int d) {
+            int lag = 0;
+            for (int i = 0; i < dx.length; i++) {
+                if (dy[i] == d) {
+                    lag = Math.max(lag, 1 - dx[i]);
+                }
+            }
+            return lag;
+        }
+    }
+
+    private final Kernel kernel;
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    /** Runs on the shared common pool.
+     * Input: The diffusion kernel.
+     * Output: A new ErrorDiffusionDitherer. */
+    public ErrorDiffusionDitherer(Kernel kernel) {
+        this(kernel, ForkJoinPool.commonPool(), false);
+    }
+
+    /** Runs on a dedicated pool of the given size (close() releases it).
+     * Input: The diffusion kernel and the number of worker threads.
+     * Output: A new ErrorDiffusionDitherer. */
+    public ErrorDiffusionDitherer(Kernel kernel, int parallelism) {
+        this(kernel, new ForkJoinPool(parallelism), true);
+    }
+
+    private ErrorDiffusionDitherer(Kernel kernel, ForkJoinPool pool, boolean ownsPool) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("kernel cannot be null");
+        }
+        this.kernel = kernel;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    public BufferedImage dither(BufferedImage img, PaletteLut lut) {
+        int workers = PixelRows.isParallelSafe(img) ? Math.min(pool.getParallelism(), img.getHeight()) : 1;
+        Wavefront wavefront = new Wavefront(img, lut, Math.max(1, workers));
+        if (workers <= 1) {
+            wavefront.call();
+            return img;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            tasks.add(wavefront);
+        }
+        for (Future<Void> done : pool.invokeAll(tasks)) {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Dithering interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Dithering failed", e.getCause());
+            }
+        }
+        return img;
+    }
+
+    /** State of one dithering job, shared by all its workers. Each call() is one worker claiming rows until none
+     * are left.
+     * Fields: The image and table, the next row to claim, the per row progress, the ring of error rows and
+     * whether a worker failed (so the others stop waiting for it). */
+    private final class Wavefront implements Callable<Void> {
+        private final BufferedImage img;
+        private final PaletteLut lut;
+        private final int width;
+        private final int height;
+        private final int[] lags;
+        private final AtomicInteger nextRow = new AtomicInteger();
+        private final AtomicIntegerArray progress;
+        private final float[][] ring;
+        private volatile boolean failed;
+
+        Wavefront(BufferedImage img, PaletteLut lut, int workers) {
+            this.img = img;
+            this.lut = lut;
+            this.width = img.getWidth();
+            this.height = img.getHeight();
+            this.progress = new AtomicIntegerArray(height);
+            this.lags = new int[kernel.depth + 1];
+            for (int d = 1; d <= kernel.depth; d++) {
+                lags[d] = kernel.lag(d);
+            }
+            // enough rows for every worker plus the rows still receiving error, so a slot is rarely waited for
+            this.ring = new float[workers + kernel.depth + 2][width * 3];
+        }
+
+        @Override
+        public Void call() {
+            int[] pixels = new int[width];
+            // error sent to the right on the current row, with room for the taps past the edge
+            float[] carry = new float[(width + 3) * 3];
+            try {
+                int y;
+                while ((y = nextRow.getAndIncrement()) < height) {
+                    ditherRow(y, pixels, carry);
+                }
+            } catch (RuntimeException | Error e) {
+                failed = true;
+                throw e;
+            }
+            return null;
+        }
+
+        private void ditherRow(int y, int[] pixels, float[] carry) {
+            // the slot of the deepest row we feed must be released by the row that used it before
+            int previous = y + kernel.depth - ring.length;
+            if (previous >= 0) {
+                awaitProgress(previous, width);
+            }
+            Arrays.fill(ring[(y + kernel.depth) % ring.length], 0f);
+            Arrays.fill(carry, 0f);
+
+            float[] incoming = ring[y % ring.length];
+            PixelRows.read(img, y, pixels);
+            int[] known = new int[kernel.depth + 1];
+
+            for (int x = 0; x < width; x++) {
+                for (int d = 1; d <= kernel.depth && d <= y; d++) {
+                    int needed = Math.min(width, x + lags[d]);
+                    if (known[d] < needed) {
+                        known[d] = awaitProgress(y - d, needed);
+                    }
+                }
+
+                int argb = pixels[x];
+                int at = x * 3;
+                float r = clamp((argb >> 16 & 0xFF) + incoming[at] + carry[at]);
+                float g = clamp((argb >> 8 & 0xFF) + incoming[at + 1] + carry[at + 1]);
+                float b = clamp((argb & 0xFF) + incoming[at + 2] + carry[at + 2]);
+                int chosen = lut.nearest(Math.round(r) << 16 | Math.round(g) << 8 | Math.round(b));
+                pixels[x] = argb & 0xFF000000 | chosen;
+
+                float errorR = r - (chosen >> 16 & 0xFF);
+                float errorG = g - (chosen >> 8 & 0xFF);
+                float errorB = b - (chosen & 0xFF);
+                for (int i = 0; i < kernel.dx.length; i++) {
+                    int tx = x + kernel.dx[i];
+                    int ty = y + kernel.dy[i];
+                    if (tx < 0 || tx >= width || ty >= height) {
+                        continue;
+                    }
+                    float[] target = kernel.dy[i] == 0 ? carry : ring[ty % ring.length];
+                    float weight = kernel.weights[i];
+                    target[tx * 3] += errorR * weight;
+                    target[tx * 3 + 1] += errorG * weight;
+                    target[tx * 3 + 2] += errorB * weight;
+                }
+                // release store: the rows below read our error through this counter
+                progress.lazySet(y, x + 1);
+            }
+            PixelRows.write(img, y, pixels);
+            progress.set(y, width);
+        }
+
+        /** Waits until a row has at least 'needed' final pixels.
+         * Input: The row and the number of pixels needed.
+         * Output: The progress seen, which may be more than needed. */
+        private int awaitProgress(int row, int needed) {
+            int spins = 0;
+            int done;
+            while ((done = progress.get(row)) < needed) {
+                if (failed) {
+                    throw new IllegalStateException("another dithering worker failed");
+                }
+                // on a busy machine the row above may not be running, give it the core
+                if (++spins < 64) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+            return done;
+        }
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0f, Math.min(255f, value));
+    }
+
+    /** Shuts down the pool if it was created by this ditherer.
+     * Input: None.
+     * Output: void. */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ErrorDiffusionDitherer[" + kernel + "]";
+    }
+}
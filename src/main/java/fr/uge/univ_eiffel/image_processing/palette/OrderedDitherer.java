@@ -0,0 +1,76 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+import java.awt.image.BufferedImage;
+import java.util.stream.IntStream;
+
+/** Ordered (Bayer) dithering: every pixel is offset by a fixed threshold depending on its position in an 8x8 tile
+ * before looking up its palette color. No pixel depends on another, so rows are simply processed in parallel.
+ * Gives a regular cross-hatch pattern instead of the noise of error diffusion.
+ * Fields: The strength of the offsets, in color levels, and the offset of every cell of the tile. */
+public class OrderedDitherer implements Ditherer {
+
+    /** Default spread of the thresholds, about the gap between neighbouring colors of a catalog palette. */
+    public static final int DEFAULT_STRENGTH = 48;
+
+    private static final int[] BAYER_8 = {
+             0, 32,  8, 40,  2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44,  4, 36, 14, 46,  6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+             3, 35, 11, 43,  1, 33,  9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47,  7, 39, 13, 45,  5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21
+    };
+
+    private final int strength;
+    private final int[] offsets = new int[64];
+
+    public OrderedDitherer() {
+        this(DEFAULT_STRENGTH);
+    }
+
+    /** Input: The spread of the thresholds in color levels (0 gives plain quantization).
+     * Output: A new OrderedDitherer. */
+    public OrderedDitherer(int strength) {
+        if (strength < 0) {
+            throw new IllegalArgumentException("strength cannot be negative");
+        }
+        this.strength = strength;
+        // thresholds centered on 0 so the average color is kept
+        for (int i = 0; i < 64; i++) {
+            offsets[i] = (int) Math.round(((BAYER_8[i] + 0.5) / 64 - 0.5) * strength);
+        }
+    }
+
+    public BufferedImage dither(BufferedImage img, PaletteLut lut) {
+        int width = img.getWidth();
+        IntStream rows = IntStream.range(0, img.getHeight());
+        if (PixelRows.isParallelSafe(img)) {
+            rows = rows.parallel();
+        }
+        rows.forEach(y -> {
+            int[] row = PixelRows.read(img, y, new int[width]);
+            int tile = (y & 7) << 3;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                int offset = offsets[tile | (x & 7)];
+                int r = clamp((argb >> 16 & 0xFF) + offset);
+                int g = clamp((argb >> 8 & 0xFF) + offset);
+                int b = clamp((argb & 0xFF) + offset);
+                row[x] = argb & 0xFF000000 | lut.nearest(r << 16 | g << 8 | b);
+            }
+            PixelRows.write(img, y, row);
+        });
+        return img;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    @Override
+    public String toString() {
+        return "OrderedDitherer[" + strength + "]";
+    }
+}
@@ -0,0 +1,166 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.TreeSet;
+
+/** The set of colors bricks exist in, taken from a catalog snapshot.
+ * Colors are deduplicated and sorted, so two snapshots with the same colors give the same palette and the same key
+ * whatever the row order, prices or stock.
+ * Fields: The sorted packed RGB colors and their content key. */
+public final class Palette {
+
+    private final int[] colors;
+    private final String key;
+
+    private Palette(int[] colors) {
+        if (colors.length == 0) {
+            throw new IllegalArgumentException("a palette needs at least one color");
+        }
+        this.colors = colors;
+        this.key = digest(colors);
+    }
+
+    /** Builds a palette from hex color codes, like the color_hex column of the catalog.
+     * Input: Codes such as "4d4c52" or "#4D4C52".
+     * Output: The palette of the distinct colors. */
+    public static Palette of(Collection<String> hexCodes) {
+        TreeSet<Integer> distinct = new TreeSet<>();
+        for (String hex : hexCodes) {
+            distinct.add(parseHex(hex));
+        }
+        return new Palette(distinct.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /** Reads the colors of a catalog.txt written by InventoryManager.exportCatalog.
+     * Format: first line is the row count, then "width,height,holes,hex,price,stock" per row.
+     * Input: Path of the catalog file.
+     * Output: The palette of the distinct colors found. */
+    public static Palette fromCatalog(Path catalogPath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(catalogPath, StandardCharsets.UTF_8)) {
+            return fromCatalog(reader);
+        }
+    }
+
+    /** Same as fromCatalog(Path) for a catalog already in memory or coming from another stream.
+     * Input: A reader on the catalog content (left open).
+     * Output: The palette of the distinct colors found. */
+    public static Palette fromCatalog(Reader catalog) throws IOException {
+        TreeSet<String> hexCodes = new TreeSet<>();
+        BufferedReader reader = catalog instanceof BufferedReader buffered ? buffered : new BufferedReader(catalog);
+        String line = reader.readLine(); // row count, not needed here
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length < 6) {
+                throw new IOException("Malformed catalog line: " + line);
+            }
+            hexCodes.add(fields[3]);
+        }
+        if (hexCodes.isEmpty()) {
+            throw new IOException("Catalog has no colors");
+        }
+        return of(hexCodes);
+    }
+
+    private static int parseHex(String hex) {
+        String digits = hex.trim();
+        if (digits.startsWith("#")) {
+            digits = digits.substring(1);
+        }
+        if (digits.length() != 6) {
+            throw new IllegalArgumentException("Invalid color code: " + hex);
+        }
+        return Integer.parseInt(digits, 16);
+    }
+
+    /** SHA-256 of the sorted colors, used to know whether a cached LUT still matches the catalog. */
+    private static String digest(int[] colors) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (int color : colors) {
+                sha.update(new byte[] { (byte) (color >> 16), (byte) (color >> 8), (byte) color });
+            }
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    public int size() {
+        return colors.length;
+    }
+
+    /** Input: An index between 0 and size() - 1.
+     * Output: The packed RGB color at that index. */
+    public int color(int index) {
+        return colors[index];
+    }
+
+    /** Hex digest of the palette content, equal for equal color sets. */
+    public String key() {
+        return key;
+    }
+
+    /** Exhaustive nearest color search, what the LUT approximates.
+     * Input: A packed RGB color and the metric.
+     * Output: The index of the closest palette color. */
+    public int nearest(int rgb, ColorDistance distance) {
+        double[] target = new double[3];
+        distance.coordinates(rgb, target);
+        return nearest(target, coordinates(distance));
+    }
+
+    /** Palette colors converted into the space of a metric, 3 values per color. */
+    double[] coordinates(ColorDistance distance) {
+        double[] coordinates = new double[colors.length * 3];
+        double[] point = new double[3];
+        for (int i = 0; i < colors.length; i++) {
+            distance.coordinates(colors[i], point);
+            System.arraycopy(point, 0, coordinates, i * 3, 3);
+        }
+        return coordinates;
+    }
+
+    static int nearest(double[] target, double[] coordinates) {
+        int best = 0;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0, at = 0; at < coordinates.length; i++, at += 3) {
+            double d0 = target[0] - coordinates[at];
+            double d1 = target[1] - coordinates[at + 1];
+            double d2 = target[2] - coordinates[at + 2];
+            double d = d0 * d0 + d1 * d1 + d2 * d2;
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Palette other && Arrays.equals(colors, other.colors);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(colors);
+    }
+
+    @Override
+    public String toString() {
+        return "Palette[" + colors.length + " colors, " + key.substring(0, 12) + "]";
+    }
+}
@@ -0,0 +1,140 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/** 3D lookup table giving the nearest palette color of any RGB color with a single array access.
+ * Each channel is cut down to its top 'bits' bits (5 gives 32x32x32 cells, 6 gives 64x64x64), and every cell stores
+ * the palette color nearest to its center. Colors close to the border between two palette colors can get the other
+ * one, the mistake is bounded by the cell size (4 levels per channel at 6 bits, about 5% of the colors).
+ * Building a table costs cells * palette size distance computations, so tables are cached per palette content,
+ * metric and precision: in memory for the process, and optionally as files for the next runs.
+ * Fields: The precision, the table of packed RGB colors, and the shared in-memory cache. */
+public final class PaletteLut {
+
+    private static final int MAGIC = 0x4A324C54; // "J2LT"
+    private static final Map<String, PaletteLut> CACHE = new ConcurrentHashMap<>();
+
+    private final int bits;
+    private final int[] table;
+
+    private PaletteLut(int bits, int[] table) {
+        this.bits = bits;
+        this.table = table;
+    }
+
+    /** Computes a table from scratch, one red slice per task.
+     * Input: The palette, the metric and the bits kept per channel (1 to 8).
+     * Output: A new PaletteLut. */
+    public static PaletteLut build(Palette palette, ColorDistance distance, int bits) {
+        if (bits < 1 || bits > 8) {
+            throw new IllegalArgumentException("bits must be between 1 and 8, got " + bits);
+        }
+        int side = 1 << bits;
+        int[] table = new int[side * side * side];
+        double[] coordinates = palette.coordinates(distance);
+
+        IntStream.range(0, side).parallel().forEach(r -> {
+            double[] point = new double[3];
+            for (int g = 0; g < side; g++) {
+                for (int b = 0; b < side; b++) {
+                    int center = center(r, bits) << 16 | center(g, bits) << 8 | center(b, bits);
+                    distance.coordinates(center, point);
+                    table[(r << bits | g) << bits | b] = palette.color(Palette.nearest(point, coordinates));
+                }
+            }
+        });
+        return new PaletteLut(bits, table);
+    }
+
+    /** Gets the table of a palette, building it only if no cache has it yet.
+     * Input: The palette, the metric, the bits per channel and a cache directory (null to keep it in memory only).
+     * Output: The PaletteLut. */
+    public static PaletteLut cached(Palette palette, ColorDistance distance, int bits, Path cacheDir) throws IOException {
+        String name = "lut-" + palette.key() + "-" + distance.name().toLowerCase() + "-" + bits + ".bin";
+        PaletteLut lut = CACHE.get(name);
+        if (lut != null) {
+            return lut;
+        }
+        Path file = cacheDir == null ? null : cacheDir.resolve(name);
+        if (file != null && Files.exists(file)) {
+            lut = read(file, bits);
+        }
+        if (lut == null) {
+            lut = build(palette, distance, bits);
+            if (file != null) {
+                lut.write(file);
+            }
+        }
+        CACHE.put(name, lut);
+        return lut;
+    }
+
+    /** Value in the middle of the range covered by a cell index on one channel. */
+    private static int center(int cell, int bits) {
+        return bits == 8 ? cell : cell << (8 - bits) | 1 << (7 - bits);
+    }
+
+    /** Input: A packed (A)RGB color.
+     * Output: The nearest palette color, as packed RGB without alpha. */
+    public int nearest(int rgb) {
+        int shift = 8 - bits;
+        int r = (rgb >> 16 & 0xFF) >> shift;
+        int g = (rgb >> 8 & 0xFF) >> shift;
+        int b = (rgb & 0xFF) >> shift;
+        return table[(r << bits | g) << bits | b];
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    /** Saves the table next to the other cached ones, through a temporary file so readers never see half of it.
+     * Input: Target path.
+     * Output: void. */
+    private void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "lut", ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8 + table.length * 4);
+            buffer.putInt(MAGIC).putInt(bits).asIntBuffer().put(table);
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Loads a cached table, a damaged file is ignored so the table simply gets rebuilt.
+     * Input: The file and the expected precision.
+     * Output: The PaletteLut, or null if the file cannot be used. */
+    private static PaletteLut read(Path file, int bits) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int cells = 1 << (3 * bits);
+            if (channel.size() != 8 + (long) cells * 4) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != bits) {
+                return null;
+            }
+            int[] table = new int[cells];
+            IntBuffer ints = buffer.asIntBuffer();
+            ints.get(table);
+            return new PaletteLut(bits, table);
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable LUT cache " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+
+import java.awt.image.BufferedImage;
+
+/** Snaps every pixel of an image to the nearest color the bricks exist in, using a PaletteLut.
+ * Alpha is left untouched.
+ * Fields: The lookup table used. */
+public class PaletteQuantizer {
+
+    private final PaletteLut lut;
+
+    public PaletteQuantizer(PaletteLut lut) {
+        this.lut = lut;
+    }
+
+    /** Replaces the colors of an image by palette colors, in place.
+     * Input: The image to quantize.
+     * Output: The same image, for chaining. */
+    public BufferedImage quantize(BufferedImage img) {
+        IntRaster raster = IntRaster.of(img);
+        if (raster != null) {
+            int[] data = raster.data();
+            int alpha = raster.alphaMask();
+            for (int y = 0; y < raster.height(); y++) {
+                int at = raster.rowOffset(y);
+                for (int x = 0; x < raster.width(); x++) {
+                    int argb = data[at + x] | alpha;
+                    data[at + x] = argb & 0xFF000000 | lut.nearest(argb);
+                }
+            }
+            return img;
+        }
+
+        int width = img.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < img.getHeight(); y++) {
+            img.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                row[x] = row[x] & 0xFF000000 | lut.nearest(row[x]);
+            }
+            img.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return img;
+    }
+}
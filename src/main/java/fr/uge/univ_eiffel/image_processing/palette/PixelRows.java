@@ -0,0 +1,50 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.MultiPixelPackedSampleModel;
+
+/** Row level pixel access shared by the ditherers, going straight to the int array when the image allows it.
+ * Fields: None (static helpers). */
+final class PixelRows {
+
+    private PixelRows() {
+    }
+
+    /** Copies one row of ARGB pixels.
+     * Input: The image, the row and an array of at least width slots.
+     * Output: The filled array. */
+    static int[] read(BufferedImage img, int y, int[] row) {
+        IntRaster raster = IntRaster.of(img);
+        int width = img.getWidth();
+        if (raster == null) {
+            return img.getRGB(0, y, width, 1, row, 0, width);
+        }
+        int[] data = raster.data();
+        int at = raster.rowOffset(y);
+        int alpha = raster.alphaMask();
+        for (int x = 0; x < width; x++) {
+            row[x] = data[at + x] | alpha;
+        }
+        return row;
+    }
+
+    /** Writes one row of ARGB pixels back.
+     * Input: The image, the row and the pixels.
+     * Output: void. */
+    static void write(BufferedImage img, int y, int[] row) {
+        IntRaster raster = IntRaster.of(img);
+        int width = img.getWidth();
+        if (raster == null) {
+            img.setRGB(0, y, width, 1, row, 0, width);
+            return;
+        }
+        System.arraycopy(row, 0, raster.data(), raster.rowOffset(y), width);
+    }
+
+    /** Whether different rows can be written from different threads (not when several pixels share an element). */
+    static boolean isParallelSafe(BufferedImage img) {
+        return !(img.getSampleModel() instanceof MultiPixelPackedSampleModel);
+    }
+}
@@ -0,0 +1,18 @@
+package fr.uge.univ_eiffel.tiling;
+
+/** One kind of brick of a catalog snapshot: a size, an optional hole pattern and a color, with its price and stock.
+ * Fields: Dimensions in studs, hole pattern ("-1" for a solid brick), lowercase hex color, packed RGB color,
+ * unit price and quantity in stock. */
+public record CatalogEntry(int width, int height, String holes, String hex, int rgb, double price, int stock) {
+
+    /** Whether the brick has no holes, the tiler only places solid bricks. */
+    public boolean isSolid() {
+        return "-1".equals(holes);
+    }
+
+    /** Name of the brick as the factory and the rest of the pipeline write it.
+     * Output: "w-h/hex" or "w-h-holes/hex". */
+    public String name() {
+        return isSolid() ? width + "-" + height + "/" + hex : width + "-" + height + "-" + holes + "/" + hex;
+    }
+}
@@ -0,0 +1,194 @@
+package fr.uge.univ_eiffel.tiling;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Immutable view of the catalog and stock at one point in time, as exported by InventoryManager.exportCatalog.
+ * Several catalog rows can describe the same brick (same size, holes and color under different color names),
+ * they are merged into one entry whose stock is the total. Solid bricks are also indexed by size so the tiler
+ * finds the colors available for a region in one lookup.
+ * Fields: The merged entries, for each size the indexes of its solid entries, the index of every brick name and of
+ * every solid size and color, and the digest of the bricks offered (stock left out). */
+public final class CatalogSnapshot {
+
+    private final List<CatalogEntry> entries;
+    private final Map<Long, int[]> solidBySize;
+    private final Map<String, Integer> byName;
+    private final Map<Long, Integer> solidByColor;
+    private String structureVersion;
+
+    private CatalogSnapshot(List<CatalogEntry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+        Map<Long, List<Integer>> bySize = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            CatalogEntry entry = entries.get(i);
+            if (entry.isSolid()) {
+                bySize.computeIfAbsent(sizeKey(entry.width(), entry.height()), k -> new ArrayList<>()).add(i);
+            }
+        }
+        Map<Long, int[]> index = new LinkedHashMap<>();
+        bySize.forEach((size, list) -> index.put(size, list.stream().mapToInt(Integer::intValue).toArray()));
+        this.solidBySize = index;
+        this.byName = new HashMap<>();
+        this.solidByColor = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            CatalogEntry entry = entries.get(i);
+            byName.put(entry.name(), i);
+            if (entry.isSolid()) {
+                solidByColor.put(colorKey(entry.width(), entry.height(), entry.rgb()), i);
+            }
+        }
+    }
+
+    /** Builds a snapshot from entries, merging the duplicates.
+     * Input: The catalog rows.
+     * Output: A new CatalogSnapshot. */
+    public static CatalogSnapshot of(List<CatalogEntry> rows) {
+        Map<String, CatalogEntry> merged = new LinkedHashMap<>();
+        for (CatalogEntry row : rows) {
+            merged.merge(row.name(), row, (a, b) -> new CatalogEntry(a.width(), a.height(), a.holes(), a.hex(), a.rgb(),
+                    Math.min(a.price(), b.price()), a.stock() + b.stock()));
+        }
+        return new CatalogSnapshot(new ArrayList<>(merged.values()));
+    }
+
+    /** Reads a catalog.txt file.
+     * Input: Path of the file written by exportCatalog.
+     * Output: A new CatalogSnapshot. */
+    public static CatalogSnapshot parse(Path catalogPath) throws IOException {
+        try (Reader reader = Files.newBufferedReader(catalogPath, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    /** Reads a catalog in the exportCatalog format: the row count on the first line,
+     * then "width,height,holes,hex,price,stock" per row.
+     * Input: A reader positioned at the start of the catalog (left open).
+     * Output: A new CatalogSnapshot. */
+    public static CatalogSnapshot parse(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader buffered ? buffered : new BufferedReader(reader);
+        String first = lines.readLine();
+        if (first == null) {
+            throw new IOException("Invalid catalog file: missing line count");
+        }
+        int count;
+        try {
+            count = Integer.parseInt(first.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid catalog file: missing line count", e);
+        }
+
+        List<CatalogEntry> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String line = lines.readLine();
+            if (line == null) {
+                throw new IOException("Invalid catalog file: expected " + count + " lines, got " + i);
+            }
+            rows.add(parseLine(line, i + 2));
+        }
+        return of(rows);
+    }
+
+    private static CatalogEntry parseLine(String line, int lineNumber) throws IOException {
+        String[] fields = line.split(",");
+        if (fields.length != 6) {
+            throw new IOException("Invalid line " + lineNumber + " in catalog: " + line);
+        }
+        try {
+            String hex = fields[3].trim().toLowerCase();
+            if (hex.startsWith("#")) {
+                hex = hex.substring(1);
+            }
+            return new CatalogEntry(
+                    Integer.parseInt(fields[0].trim()),
+                    Integer.parseInt(fields[1].trim()),
+                    fields[2].trim(),
+                    hex,
+                    Integer.parseInt(hex, 16),
+                    Double.parseDouble(fields[4].trim()),
+                    Integer.parseInt(fields[5].trim()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid line " + lineNumber + " in catalog: " + line, e);
+        }
+    }
+
+    private static long sizeKey(int width, int height) {
+        return (long) width << 32 | height;
+    }
+
+    private static long colorKey(int width, int height, int rgb) {
+        return (long) width << 44 | (long) (height & 0xFFFFF) << 24 | (rgb & 0xFFFFFF);
+    }
+
+    public List<CatalogEntry> entries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public CatalogEntry entry(int index) {
+        return entries.get(index);
+    }
+
+    /** Indexes of the solid bricks of one size.
+     * Input: Width and height in studs.
+     * Output: The entry indexes, empty if the size does not exist. */
+    int[] solidOfSize(int width, int height) {
+        return solidBySize.getOrDefault(sizeKey(width, height), new int[0]);
+    }
+
+    /** Input: A brick name ("w-h/hex" or "w-h-holes/hex", any case).
+     * Output: Its entry index, or -1 if the catalog does not sell it. */
+    public int indexOf(String name) {
+        return byName.getOrDefault(name.toLowerCase(), -1);
+    }
+
+    /** Same as indexOf for a solid brick, without building its name (used by the placement parser).
+     * Input: Width and height in studs and packed RGB color.
+     * Output: Its entry index, or -1 if the catalog does not sell it. */
+    int indexOfSolid(int width, int height, int rgb) {
+        return solidByColor.getOrDefault(colorKey(width, height, rgb), -1);
+    }
+
+    /** Digest of what the catalog offers (sizes, holes and colors, in entry order), leaving prices and stock out.
+     * Two snapshots with the same structure version produce the same placements, only their invoices differ.
+     * Output: The hex SHA-256. */
+    public synchronized String structureVersion() {
+        if (structureVersion == null) {
+            try {
+                MessageDigest sha = MessageDigest.getInstance("SHA-256");
+                for (CatalogEntry entry : entries) {
+                    sha.update((entry.name() + "\n").getBytes(StandardCharsets.US_ASCII));
+                }
+                structureVersion = HexFormat.of().formatHex(sha.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-256 is not available", e);
+            }
+        }
+        return structureVersion;
+    }
+
+    /** Fresh copy of the stock of every entry, in entry order, for a tiler to consume. */
+    public int[] stock() {
+        int[] stock = new int[entries.size()];
+        for (int i = 0; i < stock.length; i++) {
+            stock[i] = entries.get(i).stock();
+        }
+        return stock;
+    }
+}
@@ -0,0 +1,51 @@
+package fr.uge.univ_eiffel.tiling;
+
+/** Updates a previous tiling after a stock change instead of tiling the image again.
+ * A quadtree node picks its brick from the region variance and colors only, never from the stock, so when the
+ * catalog still offers the same bricks the placements stay valid as they are: only the invoice lines of the
+ * entries whose stock moved have to be recomputed, from the number of bricks the placements use.
+ * This is what the "order, receive, re-tile" loops need: after a delivery, a huge mosaic is updated in time
+ * proportional to the catalog, not to the image.
+ * Fields: None (static utility class). */
+public final class IncrementalTiler {
+
+    private IncrementalTiler() {
+    }
+
+    /** Whether a previous tiling can be updated for a new snapshot (same bricks offered, in the same order). */
+    public static boolean canUpdate(TilingResult previous, CatalogSnapshot current) {
+        return previous.catalog().structureVersion().equals(current.structureVersion());
+    }
+
+    /** Recomputes the invoice of a previous tiling against the stock of a new snapshot.
+     * Input: The previous result (with the snapshot it was computed against) and the new snapshot.
+     * Output: A result with the same placements and the new invoice. */
+    public static TilingResult update(TilingResult previous, CatalogSnapshot current) {
+        if (!canUpdate(previous, current)) {
+            throw new IllegalArgumentException("the catalog offers other bricks now, a full tiling is needed");
+        }
+        CatalogSnapshot before = previous.catalog();
+        int[] usage = previous.usage();
+        int[] missing = new int[current.size()];
+        for (int i = 0; i < missing.length; i++) {
+            int stock = current.entry(i).stock();
+            // only the entries whose stock moved are recomputed, the others keep their invoice line
+            missing[i] = stock == before.entry(i).stock() ? previous.missing(i) : Math.max(0, usage[i] - stock);
+        }
+        return previous.withStock(current, missing);
+    }
+
+    /** Number of entries that became available (nothing missing any more) or unavailable between two results.
+     * Input: The previous and the updated result.
+     * Output: The count of entries whose availability flipped. */
+    public static int availabilityChanges(TilingResult previous, TilingResult updated) {
+        int changes = 0;
+        int[] usage = previous.usage();
+        for (int i = 0; i < usage.length; i++) {
+            if (usage[i] > 0 && (previous.missing(i) == 0) != (updated.missing(i) == 0)) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,102 @@
+package fr.uge.univ_eiffel.tiling;
+
+import fr.uge.univ_eiffel.image_processing.IntRaster;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The image to tile, one packed RGB value per stud, row by row.
+ * Fields: The dimensions and the pixels. */
+public final class PixelMatrix {
+
+    private final int width;
+    private final int height;
+    private final int[] rgb;
+
+    /** Input: Dimensions and row-major packed RGB pixels (alpha is ignored).
+     * Output: A new PixelMatrix sharing the array. */
+    public PixelMatrix(int width, int height, int[] rgb) {
+        if (width <= 0 || height <= 0 || rgb.length < width * height) {
+            throw new IllegalArgumentException("invalid matrix " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.rgb = rgb;
+    }
+
+    /** Copies the pixels of an image.
+     * Input: The (downscaled) image.
+     * Output: A new PixelMatrix. */
+    public static PixelMatrix of(BufferedImage img) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] rgb = new int[width * height];
+        IntRaster raster = IntRaster.of(img);
+        for (int y = 0; y < height; y++) {
+            if (raster != null) {
+                System.arraycopy(raster.data(), raster.rowOffset(y), rgb, y * width, width);
+            } else {
+                img.getRGB(0, y, width, 1, rgb, y * width, width);
+            }
+        }
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] &= 0xFFFFFF;
+        }
+        return new PixelMatrix(width, height, rgb);
+    }
+
+    /** Reads a hex matrix file written by ImageUtils.bufferedToHexMatrix.
+     * Input: Path of the file.
+     * Output: A new PixelMatrix. */
+    public static PixelMatrix fromHexMatrix(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            return readHexMatrix(reader);
+        }
+    }
+
+    /** Reads exactly one hex matrix (header and rows) from a stream, leaving the rest of it unread.
+     * Input: A reader positioned on the "width height" header.
+     * Output: A new PixelMatrix. */
+    public static PixelMatrix readHexMatrix(BufferedReader reader) throws IOException {
+        String header = reader.readLine();
+        String[] dims = header == null ? new String[0] : header.trim().split(" ");
+        if (dims.length != 2) {
+            throw new IOException("Invalid image file: missing dimensions");
+        }
+        int width = Integer.parseInt(dims[0]);
+        int height = Integer.parseInt(dims[1]);
+        int[] rgb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Invalid image file: only " + y + " rows out of " + height);
+            }
+            String[] values = line.trim().split(" ");
+            if (values.length != width) {
+                throw new IOException("Invalid image file: row " + y + " has " + values.length + " pixels");
+            }
+            for (int x = 0; x < width; x++) {
+                rgb[y * width + x] = Integer.parseInt(values[x], 16);
+            }
+        }
+        return new PixelMatrix(width, height, rgb);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Input: Coordinates of a stud.
+     * Output: Its packed RGB color. */
+    public int get(int x, int y) {
+        return rgb[y * width + x];
+    }
+}
@@ -0,0 +1,282 @@
+package fr.uge.univ_eiffel.tiling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** In-process replacement of the C tiling engine.
+ * The image is first cut into a grid of the largest square bricks of the catalog, then every cell is cut
+ * recursively in 4 (in 2 along the longer side for the rectangles left on the image borders). A region becomes a
+ * single brick when its color variance is at most the threshold and the catalog sells a solid brick of exactly that
+ * size, the brick color being the catalog color closest to the region average. Every brick taken is removed from
+ * a StockPool, and the bricks that are not in stock end up in the missing-bricks invoice.
+ * The variance of any region is read from summed-area tables in O(1). The tiler itself keeps no state between
+ * jobs, so one instance can serve several threads at once.
+ * Fields: The variance threshold. */
+public class QuadtreeTiler {
+
+    private final int threshold;
+
+    /** Input: The maximal variance of a region placed as one brick: the average squared distance of its studs to
+     * their mean color, summed over R, G and B (0 only merges perfectly uniform regions).
+     * Output: A new QuadtreeTiler. */
+    public QuadtreeTiler(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold cannot be negative");
+        }
+        this.threshold = threshold;
+    }
+
+    /** Tiles an image with the bricks of a catalog.
+     * Input: The pixel matrix and the catalog/stock snapshot (not modified).
+     * Output: The placements and the missing bricks. */
+    public TilingResult tile(PixelMatrix matrix, CatalogSnapshot catalog) {
+        return tile(matrix, catalog, null);
+    }
+
+    /** Same as tile(matrix, catalog), also reporting every brick to a listener as soon as it is placed.
+     * Input: The pixel matrix, the catalog/stock snapshot and the listener (may be null).
+     * Output: The placements and the missing bricks. */
+    public TilingResult tile(PixelMatrix matrix, CatalogSnapshot catalog, TilingListener listener) {
+        checkCatalog(catalog);
+        SummedAreas sums = new SummedAreas(matrix);
+        int block = rootBlock(catalog);
+        Region region = new Region(sums, catalog, StockPool.of(catalog), listener);
+        region.tileRows(block, 0, matrix.height());
+        return TilingResult.merge(catalog, List.of(region.placements()), region.missing);
+    }
+
+    /** Tiles independent horizontal bands of root cells concurrently, all drawing from the same stock.
+     * Bands are merged back in image order, and since the chosen bricks never depend on the stock, the result is
+     * the same as the sequential one (the missing quantity of a brick is its uses minus its stock either way).
+     * Input: The pixel matrix, the catalog, the shared stock (several jobs may share one) and the pool to run on.
+     * Output: The merged placements and missing bricks. */
+    public TilingResult tileParallel(PixelMatrix matrix, CatalogSnapshot catalog, StockPool stock, ForkJoinPool pool) {
+        checkCatalog(catalog);
+        SummedAreas sums = new SummedAreas(matrix);
+        int block = rootBlock(catalog);
+
+        List<Callable<Region>> bands = new ArrayList<>();
+        for (int y = 0; y < matrix.height(); y += block) {
+            int fromY = y;
+            bands.add(() -> {
+                Region region = new Region(sums, catalog, stock, null);
+                region.tileRows(block, fromY, Math.min(fromY + block, matrix.height()));
+                return region;
+            });
+        }
+
+        List<Placements> placements = new ArrayList<>(bands.size());
+        int[] missing = new int[catalog.size()];
+        for (Future<Region> band : pool.invokeAll(bands)) {
+            Region region;
+            try {
+                region = band.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Tiling interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Tiling of a region failed", e.getCause());
+            }
+            placements.add(region.placements());
+            for (int i = 0; i < missing.length; i++) {
+                missing[i] += region.missing[i];
+            }
+        }
+        return TilingResult.merge(catalog, placements, missing);
+    }
+
+    private static void checkCatalog(CatalogSnapshot catalog) {
+        if (catalog.solidOfSize(1, 1).length == 0) {
+            throw new IllegalArgumentException("the catalog has no solid 1x1 brick, some studs could not be covered");
+        }
+    }
+
+    /** Largest power of two side s such that solid s x s bricks exist, and so do all the smaller squares of the
+     * quadtree below it (s/2, s/4, ... 1).
+     * Input: The catalog.
+     * Output: The side of the root cells. */
+    static int rootBlock(CatalogSnapshot catalog) {
+        int side = 1;
+        while (side <= 1 << 15 && catalog.solidOfSize(side * 2, side * 2).length > 0) {
+            side *= 2;
+        }
+        return side;
+    }
+
+    /** Summed-area tables of an image, one per channel plus one for the squares. Read-only once built, so any
+     * number of regions can use them at the same time.
+     * Fields: The row stride of the tables and the tables. */
+    static final class SummedAreas {
+        private final int width;
+        private final int height;
+        private final int stride;
+        private final long[] sumR;
+        private final long[] sumG;
+        private final long[] sumB;
+        private final long[] sumSquares;
+
+        SummedAreas(PixelMatrix matrix) {
+            width = matrix.width();
+            height = matrix.height();
+            stride = width + 1;
+            int cells = stride * (height + 1);
+            sumR = new long[cells];
+            sumG = new long[cells];
+            sumB = new long[cells];
+            sumSquares = new long[cells];
+            for (int y = 0; y < height; y++) {
+                long rowR = 0, rowG = 0, rowB = 0, rowSquares = 0;
+                for (int x = 0; x < width; x++) {
+                    int rgb = matrix.get(x, y);
+                    int r = rgb >> 16 & 0xFF, g = rgb >> 8 & 0xFF, b = rgb & 0xFF;
+                    rowR += r;
+                    rowG += g;
+                    rowB += b;
+                    rowSquares += r * r + g * g + b * b;
+                    int at = (y + 1) * stride + x + 1;
+                    sumR[at] = sumR[at - stride] + rowR;
+                    sumG[at] = sumG[at - stride] + rowG;
+                    sumB[at] = sumB[at - stride] + rowB;
+                    sumSquares[at] = sumSquares[at - stride] + rowSquares;
+                }
+            }
+        }
+
+        long area(long[] table, int x, int y, int w, int h) {
+            int top = y * stride, bottom = (y + h) * stride;
+            return table[bottom + x + w] - table[bottom + x] - table[top + x + w] + table[top + x];
+        }
+    }
+
+    /** Placements of one region, as growing parallel arrays.
+     * Fields: The coordinates, the catalog entry indexes and the number of placements. */
+    static final class Placements {
+        int[] xs = new int[256];
+        int[] ys = new int[256];
+        int[] entries = new int[256];
+        int count;
+
+        void add(int x, int y, int entry) {
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+                entries = Arrays.copyOf(entries, count * 2);
+            }
+            xs[count] = x;
+            ys[count] = y;
+            entries[count] = entry;
+            count++;
+        }
+    }
+
+    /** One part of the image being tiled by one thread: the quadtree walk, its placements and its missing bricks.
+     * Fields: The shared tables, catalog and stock, this region's outputs, and the optional listener with the
+     * brick names it gets. */
+    private final class Region {
+        private final SummedAreas sums;
+        private final CatalogSnapshot catalog;
+        private final StockPool stock;
+        private final Placements placements = new Placements();
+        private final int[] missing;
+        private final TilingListener listener;
+        private final String[] names;
+
+        Region(SummedAreas sums, CatalogSnapshot catalog, StockPool stock, TilingListener listener) {
+            this.sums = sums;
+            this.catalog = catalog;
+            this.stock = stock;
+            this.missing = new int[catalog.size()];
+            this.listener = listener;
+            this.names = listener == null ? null : new String[catalog.size()];
+        }
+
+        /** Tiles the root cells of the rows [fromY, toY), fromY being a multiple of the root block. */
+        void tileRows(int block, int fromY, int toY) {
+            for (int y = fromY; y < toY; y += block) {
+                for (int x = 0; x < sums.width; x += block) {
+                    split(x, y, Math.min(block, sums.width - x), Math.min(block, toY - y));
+                }
+            }
+        }
+
+        void split(int x, int y, int w, int h) {
+            long n = (long) w * h;
+            long r = sums.area(sums.sumR, x, y, w, h);
+            long g = sums.area(sums.sumG, x, y, w, h);
+            long b = sums.area(sums.sumB, x, y, w, h);
+            int[] candidates = catalog.solidOfSize(w, h);
+
+            if (candidates.length > 0) {
+                // variance = (sum(c^2) - sum(c)^2 / n) / n, summed over the 3 channels
+                double variance = (sums.area(sums.sumSquares, x, y, w, h) - (double) (r * r + g * g + b * b) / n) / n;
+                if (variance <= threshold || n == 1) {
+                    int mean = (int) Math.round((double) r / n) << 16
+                            | (int) Math.round((double) g / n) << 8
+                            | (int) Math.round((double) b / n);
+                    place(x, y, nearest(candidates, mean));
+                    return;
+                }
+            }
+
+            if (w > h) {
+                split(x, y, w / 2, h);
+                split(x + w / 2, y, w - w / 2, h);
+            } else if (h > w) {
+                split(x, y, w, h / 2);
+                split(x, y + h / 2, w, h - h / 2);
+            } else {
+                int left = w / 2, top = h / 2;
+                split(x, y, left, top);
+                split(x + left, y, w - left, top);
+                split(x, y + top, left, h - top);
+                split(x + left, y + top, w - left, h - top);
+            }
+        }
+
+        /** Closest color among the bricks of one size, squared RGB distance. */
+        private int nearest(int[] candidates, int rgb) {
+            int best = candidates[0];
+            int bestDistance = Integer.MAX_VALUE;
+            for (int candidate : candidates) {
+                int other = catalog.entry(candidate).rgb();
+                int dr = (rgb >> 16 & 0xFF) - (other >> 16 & 0xFF);
+                int dg = (rgb >> 8 & 0xFF) - (other >> 8 & 0xFF);
+                int db = (rgb & 0xFF) - (other & 0xFF);
+                int distance = dr * dr + dg * dg + db * db;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = candidate;
+                }
+            }
+            return best;
+        }
+
+        private void place(int x, int y, int entry) {
+            placements.add(x, y, entry);
+            boolean inStock = stock.take(entry);
+            if (!inStock) {
+                missing[entry]++;
+            }
+
+            if (listener != null) {
+                // names are built once per kind of brick, not once per placement
+                if (names[entry] == null) {
+                    names[entry] = catalog.entry(entry).name();
+                }
+                listener.placed(names[entry], x, y);
+                if (!inStock) {
+                    listener.missing(names[entry], 1);
+                }
+            }
+        }
+
+        Placements placements() {
+            return placements;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package fr.uge.univ_eiffel.tiling;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** Stock shared by concurrent tiling regions (or jobs), one lock-free counter per catalog entry.
+ * A brick is only handed out after a successful compare-and-set from n to n - 1, so two regions can never both
+ * take the last unit of an entry.
+ * Fields: The remaining quantity of every catalog entry. */
+public final class StockPool {
+
+    private final AtomicIntegerArray remaining;
+
+    private StockPool(int[] stock) {
+        this.remaining = new AtomicIntegerArray(stock);
+    }
+
+    /** Input: The catalog snapshot whose stock is copied.
+     * Output: A new pool with the stock of every entry. */
+    public static StockPool of(CatalogSnapshot catalog) {
+        return new StockPool(catalog.stock());
+    }
+
+    /** Takes one brick if any is left.
+     * Input: The catalog entry index.
+     * Output: true if a brick was taken, false if the entry is out of stock (the brick must be ordered). */
+    public boolean take(int entry) {
+        int left;
+        do {
+            left = remaining.get(entry);
+            if (left <= 0) {
+                return false;
+            }
+        } while (!remaining.compareAndSet(entry, left, left - 1));
+        return true;
+    }
+
+    /** Input: The catalog entry index.
+     * Output: How many bricks of it are still available. */
+    public int remaining(int entry) {
+        return remaining.get(entry);
+    }
+}
@@ -0,0 +1,115 @@
+package fr.uge.univ_eiffel.tiling;
+
+import fr.uge.univ_eiffel.image_processing.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/** Bridge to an external tiler process that works entirely through its pipes (see TilerProtocol).
+ * The image and catalog are written to the process stdin by a background thread while the caller reads the
+ * records from stdout and forwards them to a listener as soon as they arrive: no file is written, so concurrent
+ * jobs cannot overwrite each other, and the invoice can be consumed before the tiling is over.
+ * Fields: The command starting the tiler. */
+public class StreamingTiler {
+
+    private final List<String> command;
+
+    /** Input: The command line starting a tiler that speaks TilerProtocol.
+     * Output: A new StreamingTiler. */
+    public StreamingTiler(List<String> command) {
+        if (command == null || command.isEmpty()) {
+            throw new IllegalArgumentException("command cannot be empty");
+        }
+        this.command = List.copyOf(command);
+    }
+
+    /** Uses TilerServer in a child JVM started with the same java binary and classpath as this one.
+     * Output: A new StreamingTiler. */
+    public static StreamingTiler javaProcess() {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        return new StreamingTiler(List.of(java, "-cp", System.getProperty("java.class.path"), TilerServer.class.getName()));
+    }
+
+    /** Runs one tiling job through the process.
+     * Input: The processed image, the catalog content (exportCatalog format), the variance threshold and the
+     * listener receiving the records.
+     * Output: The number of bricks placed. */
+    public int tile(BufferedImage image, String catalog, int threshold, TilingListener listener) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        // the tiler's own errors show up in our console, stdout is reserved for the records
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = builder.start();
+
+        // feeding stdin from another thread: if we wrote everything first, a tiler answering early would block
+        // on a full stdout pipe while we block on a full stdin pipe. The writes block, so the feeder gets its own
+        // thread rather than one of the common pool
+        CompletableFuture<Void> fed = new CompletableFuture<>();
+        Thread feeder = new Thread(() -> {
+            try (OutputStream in = new BufferedOutputStream(process.getOutputStream(), 1 << 16)) {
+                in.write((threshold + "\n").getBytes(StandardCharsets.US_ASCII));
+                ImageUtils.writeHexMatrix(in, image);
+                in.write(catalog.getBytes(StandardCharsets.US_ASCII));
+                fed.complete(null);
+            } catch (IOException | RuntimeException e) {
+                fed.completeExceptionally(e);
+            }
+        }, "tiler-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+
+        int placed = -1;
+        int received = 0;
+        try {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))) {
+                String line;
+                while (placed < 0 && (line = out.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    if (line.charAt(0) == TilerProtocol.PLACEMENT) {
+                        received++;
+                    }
+                    placed = TilerProtocol.dispatch(line, listener);
+                }
+            } catch (UncheckedIOException e) {
+                // a listener failing to write its output
+                throw e.getCause();
+            }
+
+            // a crashed tiler also breaks the feeder's pipe, the exit code is the more useful error
+            int code = process.waitFor();
+            if (code != 0) {
+                throw new IOException("Tiler process exited with code " + code);
+            }
+            fed.join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to send the job to the tiler", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the tiler", e);
+        } finally {
+            // whatever went wrong, listener exceptions included, the process does not outlive the job, and the
+            // feeder stops on the broken pipe
+            if (process.isAlive()) {
+                process.destroy();
+            }
+        }
+        if (placed < 0) {
+            throw new IOException("Tiler output ended without its final record");
+        }
+        if (placed != received) {
+            throw new IOException("Tiler announced " + placed + " placements but sent " + received);
+        }
+        return placed;
+    }
+}
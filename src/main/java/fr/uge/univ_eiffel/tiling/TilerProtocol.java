@@ -0,0 +1,55 @@
+package fr.uge.univ_eiffel.tiling;
+
+import java.io.IOException;
+
+/** The text protocol spoken over the pipes of an external tiler process.
+ * stdin: the threshold on its own line, then the hex matrix (as ImageUtils.writeHexMatrix writes it), then the
+ * catalog (as InventoryManager.exportCatalog writes it).
+ * stdout: one record per line, the first field telling its kind:
+ *   P,w-h/hex,x,y      a placed brick
+ *   M,w-h/hex,qty      bricks to order (quantities of the same brick add up)
+ *   L,text             a log line
+ *   D,count            end of the output, with the number of placements sent
+ * Fields: None (constants and helpers). */
+public final class TilerProtocol {
+
+    public static final char PLACEMENT = 'P';
+    public static final char MISSING = 'M';
+    public static final char LOG = 'L';
+    public static final char DONE = 'D';
+
+    private TilerProtocol() {
+    }
+
+    /** Decodes one record and hands it to the listener.
+     * Input: The line read from the tiler and the listener.
+     * Output: The number of placements announced if this was the final record, -1 otherwise. */
+    public static int dispatch(String line, TilingListener listener) throws IOException {
+        if (line.length() < 2 || line.charAt(1) != ',') {
+            throw new IOException("Invalid tiler record: " + line);
+        }
+        try {
+            switch (line.charAt(0)) {
+                case PLACEMENT -> {
+                    int second = line.indexOf(',', 2);
+                    int third = line.indexOf(',', second + 1);
+                    listener.placed(line.substring(2, second),
+                            Integer.parseInt(line, second + 1, third, 10),
+                            Integer.parseInt(line, third + 1, line.length(), 10));
+                }
+                case MISSING -> {
+                    int second = line.indexOf(',', 2);
+                    listener.missing(line.substring(2, second), Integer.parseInt(line, second + 1, line.length(), 10));
+                }
+                case LOG -> listener.log(line.substring(2));
+                case DONE -> {
+                    return Integer.parseInt(line, 2, line.length(), 10);
+                }
+                default -> throw new IOException("Unknown tiler record: " + line);
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid tiler record: " + line, e);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,98 @@
+package fr.uge.univ_eiffel.tiling;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/** Runs the Java tiler as an external process speaking TilerProtocol on its stdin/stdout.
+ * This is what StreamingTiler launches by default; any other tiler implementing the protocol can replace it.
+ * Fields: None (Main class). */
+public class TilerServer {
+
+    /** Records are flushed in batches of this size, so the other side sees them while the tiling goes on. */
+    static final int FLUSH_EVERY = 256;
+
+    /** Reads one job from stdin and streams its records to stdout.
+     * Input: Command line arguments (unused).
+     * Output: void (exit code 1 on failure, the error goes to stderr). */
+    public static void main(String[] args) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII), 1 << 16);
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16);
+            serve(in, out);
+        } catch (Exception e) {
+            System.err.println("Tiler failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /** Handles one job: parses the input, tiles it and writes the records.
+     * Input: The request stream and the record stream (flushed, not closed).
+     * Output: void. */
+    static void serve(BufferedReader in, Writer out) throws IOException {
+        String first = in.readLine();
+        if (first == null) {
+            throw new IOException("Missing threshold");
+        }
+        int threshold = Integer.parseInt(first.trim());
+        PixelMatrix matrix = PixelMatrix.readHexMatrix(in);
+        CatalogSnapshot catalog = CatalogSnapshot.parse(in);
+
+        RecordWriter records = new RecordWriter(out);
+        TilingResult result;
+        try {
+            result = new QuadtreeTiler(threshold).tile(matrix, catalog, records);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.write(TilerProtocol.LOG + "," + String.format("Price: %.2f euros", result.price()) + "\n");
+        out.write(TilerProtocol.LOG + ",TOTAL MISSING BRICKS: " + result.missingCount() + "\n");
+        out.write(TilerProtocol.DONE + "," + result.count() + "\n");
+        out.flush();
+    }
+
+    /** Listener turning the tiler events into protocol records.
+     * Fields: The output and the number of records since the last flush. */
+    private static final class RecordWriter implements TilingListener {
+        private final Writer out;
+        private final StringBuilder line = new StringBuilder(40);
+        private int pending;
+
+        RecordWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void placed(String brick, int x, int y) {
+            line.setLength(0);
+            line.append(TilerProtocol.PLACEMENT).append(',').append(brick).append(',').append(x).append(',').append(y);
+            write();
+        }
+
+        @Override
+        public void missing(String brick, int quantity) {
+            line.setLength(0);
+            line.append(TilerProtocol.MISSING).append(',').append(brick).append(',').append(quantity);
+            write();
+        }
+
+        private void write() {
+            try {
+                out.append(line).append('\n');
+                if (++pending == FLUSH_EVERY) {
+                    out.flush();
+                    pending = 0;
+                }
+            } catch (IOException e) {
+                // the listener interface cannot throw, unwrapped again in serve
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package fr.uge.univ_eiffel.tiling;
+
+import fr.uge.univ_eiffel.image_processing.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/** Disk cache of finished jobs, so resubmitting the same image with the same settings skips the whole
+ * decode / downscale / tiling chain.
+ * Every entry is a directory named after its key, holding the downscaled matrix (binary format), the placement
+ * list, the invoice, the catalog export it was computed against and the catalog version used in the key. Keys hash the input file bytes with every
+ * setting that changes the output, including the catalog/stock version, so a stock change never serves a stale
+ * tiling. Entries are evicted least recently used first (the directory time is refreshed on every hit) once the
+ * cache grows past its size bound.
+ * Fields: The cache directory and its size bound in bytes. */
+public final class TilingCache {
+
+    static final String MATRIX = "matrix.bin";
+    static final String PLACEMENTS = "placements.txt";
+    static final String INVOICE = "invoice.txt";
+    static final String CATALOG = "catalog.txt";
+    static final String VERSION = "catalog.version";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /** Input: The directory holding the entries (created if needed) and the maximal total size in bytes.
+     * Output: A new TilingCache. */
+    public TilingCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /** One cached job.
+     * Fields: The entry directory. */
+    public record Entry(Path directory) {
+        public Path matrix() {
+            return directory.resolve(MATRIX);
+        }
+
+        public Path placements() {
+            return directory.resolve(PLACEMENTS);
+        }
+
+        public Path invoice() {
+            return directory.resolve(INVOICE);
+        }
+
+        public Path catalog() {
+            return directory.resolve(CATALOG);
+        }
+    }
+
+    /** Version stamp of a catalog/stock export: any change of a color, price or stock count gives a new one.
+     * Input: The exported catalog file.
+     * Output: The hex SHA-256 of its content. */
+    public static String catalogVersion(Path catalogFile) throws IOException {
+        MessageDigest sha = sha256();
+        update(sha, catalogFile);
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    /** Builds the key of a job.
+     * Input: The source image file, the downscaler id, the target size, the threshold, any other setting changing
+     * the output (palette, dithering, tiler...) and the catalog version.
+     * Output: The hex key. */
+    public static String key(Path input, String downscaler, int width, int height, int threshold, String options, String catalogVersion) throws IOException {
+        MessageDigest sha = sha256();
+        update(sha, input);
+        String settings = "\n" + downscaler + "\n" + width + "x" + height + "\n" + threshold + "\n" + options + "\n" + catalogVersion;
+        sha.update(settings.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private static void update(MessageDigest sha, Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                sha.update(buffer, 0, read);
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Looks a job up, and marks it as recently used.
+     * Input: The key.
+     * Output: The entry, or empty on a miss. */
+    public synchronized Optional<Entry> get(String key) throws IOException {
+        Entry entry = new Entry(directory.resolve(key));
+        if (!Files.isRegularFile(entry.directory().resolve(VERSION))) {
+            return Optional.empty();
+        }
+        Files.setLastModifiedTime(entry.directory(), FileTime.fromMillis(System.currentTimeMillis()));
+        return Optional.of(entry);
+    }
+
+    /** Stores a finished job. The entry is assembled in a temporary directory and renamed, so a crash never leaves
+     * a half written entry behind.
+     * Input: The key, the catalog version, the downscaled image, the two tiler outputs and the catalog export
+     * (all copied).
+     * Output: The stored entry. */
+    public synchronized Entry put(String key, String catalogVersion, BufferedImage matrix, Path placements, Path invoice, Path catalog) throws IOException {
+        Path tmp = Files.createTempDirectory(directory, "tmp-");
+        try {
+            ImageUtils.bufferedToBinaryMatrix(tmp.resolve(MATRIX).toString(), matrix, true);
+            Files.copy(placements, tmp.resolve(PLACEMENTS));
+            Files.copy(invoice, tmp.resolve(INVOICE));
+            Files.copy(catalog, tmp.resolve(CATALOG));
+            // written last: an entry without its version file is not an entry
+            Files.writeString(tmp.resolve(VERSION), catalogVersion, StandardCharsets.US_ASCII);
+
+            Path target = directory.resolve(key);
+            deleteTree(target);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+            return new Entry(target);
+        } finally {
+            deleteTree(tmp);
+        }
+    }
+
+    /** Replaces the invoice and catalog of an entry after an incremental update, keeping its placements.
+     * Input: The entry, the new invoice and the catalog export it matches.
+     * Output: void. */
+    public synchronized void refresh(Entry entry, Path invoice, Path catalog) throws IOException {
+        Files.copy(invoice, entry.invoice(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(catalog, entry.catalog(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Drops every entry computed against another catalog/stock version, they can never be hit again.
+     * Input: The current version.
+     * Output: The number of entries removed. */
+    public synchronized int invalidateExcept(String catalogVersion) throws IOException {
+        int removed = 0;
+        for (Path entry : entries()) {
+            Path version = entry.resolve(VERSION);
+            if (!Files.isRegularFile(version) || !Files.readString(version, StandardCharsets.US_ASCII).equals(catalogVersion)) {
+                deleteTree(entry);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** Removes the least recently used entries until the cache fits in its size bound. */
+    private void evict() throws IOException {
+        List<Path> entries = entries();
+        long total = 0;
+        List<long[]> sizes = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            long size = size(entries.get(i));
+            total += size;
+            sizes.add(new long[] { i, Files.getLastModifiedTime(entries.get(i)).toMillis(), size });
+        }
+        sizes.sort(Comparator.comparingLong(s -> s[1]));
+        for (long[] oldest : sizes) {
+            if (total <= maxBytes) {
+                break;
+            }
+            deleteTree(entries.get((int) oldest[0]));
+            total -= oldest[2];
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, path ->
+                Files.isDirectory(path) && !path.getFileName().toString().startsWith("tmp-"))) {
+            stream.forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private static long size(Path entry) throws IOException {
+        try (Stream<Path> files = Files.list(entry)) {
+            long total = 0;
+            for (Path file : (Iterable<Path>) files::iterator) {
+                total += Files.size(file);
+            }
+            return total;
+        }
+    }
+
+    private static void deleteTree(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
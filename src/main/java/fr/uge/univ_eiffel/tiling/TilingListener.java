@@ -0,0 +1,23 @@
+package fr.uge.univ_eiffel.tiling;
+
+/** Receives the output of a tiler as it is produced, brick by brick, instead of waiting for the whole result.
+ * Fields: None (interface). */
+public interface TilingListener {
+
+    /** A brick has been placed.
+     * Input: The brick name ("w-h/hex") and the position of its top left stud.
+     * Output: void. */
+    void placed(String brick, int x, int y);
+
+    /** Some bricks have to be ordered. Called again for the same brick when more are found missing, so the
+     * quantities add up.
+     * Input: The brick name and how many more are missing.
+     * Output: void. */
+    void missing(String brick, int quantity);
+
+    /** Free text reported by the tiler (progress, summary).
+     * Input: The line.
+     * Output: void. */
+    default void log(String line) {
+    }
+}
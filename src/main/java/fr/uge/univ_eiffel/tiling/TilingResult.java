@@ -0,0 +1,441 @@
+package fr.uge.univ_eiffel.tiling;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Output of a tiling job: where each brick goes, and what has to be ordered.
+ * Placements are stored as parallel primitive arrays: position, size in studs, packed RGB color and catalog entry
+ * index. Results read from a placement file without a catalog (e.g. by the visualizer) only have the geometry and
+ * colors, their entry indexes are -1 and nothing is missing.
+ * Fields: The catalog the indexes refer to (null if unknown), the placements, the missing quantity of every entry,
+ * and how many bricks of every entry are used (computed on demand). */
+public final class TilingResult {
+
+    private final CatalogSnapshot catalog;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] colors;
+    private final int[] entries;
+    private final int count;
+    private final int[] missing;
+    private int[] usage;
+
+    /** Concatenates the placements of several regions, in order.
+     * Input: The catalog, the region placements and the total missing quantity per entry.
+     * Output: A new TilingResult. */
+    static TilingResult merge(CatalogSnapshot catalog, List<QuadtreeTiler.Placements> regions, int[] missing) {
+        if (regions.size() == 1) {
+            QuadtreeTiler.Placements only = regions.get(0);
+            return of(catalog, only.xs, only.ys, only.entries, only.count, missing);
+        }
+        int count = 0;
+        for (QuadtreeTiler.Placements region : regions) {
+            count += region.count;
+        }
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        int[] entries = new int[count];
+        int at = 0;
+        for (QuadtreeTiler.Placements region : regions) {
+            System.arraycopy(region.xs, 0, xs, at, region.count);
+            System.arraycopy(region.ys, 0, ys, at, region.count);
+            System.arraycopy(region.entries, 0, entries, at, region.count);
+            at += region.count;
+        }
+        return of(catalog, xs, ys, entries, count, missing);
+    }
+
+    /** Placements given by catalog entry, the sizes and colors are looked up once here. */
+    private static TilingResult of(CatalogSnapshot catalog, int[] xs, int[] ys, int[] entries, int count, int[] missing) {
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        int[] colors = new int[count];
+        for (int i = 0; i < count; i++) {
+            CatalogEntry entry = catalog.entry(entries[i]);
+            widths[i] = entry.width();
+            heights[i] = entry.height();
+            colors[i] = entry.rgb();
+        }
+        return new TilingResult(catalog, xs, ys, widths, heights, colors, entries, count, missing);
+    }
+
+    private TilingResult(CatalogSnapshot catalog, int[] xs, int[] ys, int[] widths, int[] heights, int[] colors,
+                         int[] entries, int count, int[] missing) {
+        this.catalog = catalog;
+        this.xs = xs;
+        this.ys = ys;
+        this.widths = widths;
+        this.heights = heights;
+        this.colors = colors;
+        this.entries = entries;
+        this.count = count;
+        this.missing = missing;
+    }
+
+    /** Reads back a placement file written by writePlacements (or by the C tiler), see parse(InputStream, ...).
+     * Input: The file and the catalog its bricks come from (null for the geometry and colors only).
+     * Output: A new TilingResult. */
+    public static TilingResult parse(Path placements, CatalogSnapshot catalog) throws IOException {
+        try (InputStream in = Files.newInputStream(placements)) {
+            return parse(in, catalog);
+        }
+    }
+
+    /** Reads "w-h/hex,x,y" (or "w-h-holes/hex,x,y") lines in a single pass over the bytes, without building a
+     * String per line: the numbers and the color are decoded digit by digit and solid bricks are looked up in the
+     * catalog by size and color. With a catalog, the invoice is recomputed from its stock.
+     * Input: The placement bytes (left open) and the catalog (null for the geometry and colors only).
+     * Output: A new TilingResult. */
+    public static TilingResult parse(InputStream in, CatalogSnapshot catalog) throws IOException {
+        PlacementParser parser = new PlacementParser(in);
+        int capacity = 256;
+        int[] xs = new int[capacity], ys = new int[capacity], widths = new int[capacity], heights = new int[capacity];
+        int[] colors = new int[capacity], entries = new int[capacity];
+        int count = 0;
+        while (parser.nextLine()) {
+            if (count == capacity) {
+                capacity *= 2;
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                widths = Arrays.copyOf(widths, capacity);
+                heights = Arrays.copyOf(heights, capacity);
+                colors = Arrays.copyOf(colors, capacity);
+                entries = Arrays.copyOf(entries, capacity);
+            }
+            widths[count] = parser.number('-');
+            heights[count] = parser.number('/', '-');
+            String holes = parser.last == '-' ? parser.text('/') : null;
+            colors[count] = parser.hex(',');
+            int hexDigits = parser.length;
+            xs[count] = parser.number(',');
+            ys[count] = parser.number('\n');
+
+            int entry = -1;
+            if (catalog != null) {
+                entry = holes == null && hexDigits == 6
+                        ? catalog.indexOfSolid(widths[count], heights[count], colors[count])
+                        : catalog.indexOf(widths[count] + "-" + heights[count] + (holes == null ? "" : "-" + holes)
+                                + "/" + String.format("%06x", colors[count]));
+                if (entry < 0) {
+                    throw new IOException("Brick not in the catalog at line " + parser.line + " of the placements");
+                }
+            }
+            entries[count] = entry;
+            count++;
+        }
+
+        if (catalog == null) {
+            return new TilingResult(null, xs, ys, widths, heights, colors, entries, count, new int[0]);
+        }
+        int[] missing = new int[catalog.size()];
+        TilingResult result = new TilingResult(catalog, xs, ys, widths, heights, colors, entries, count, missing);
+        int[] usage = result.usage();
+        for (int i = 0; i < missing.length; i++) {
+            missing[i] = Math.max(0, usage[i] - catalog.entry(i).stock());
+        }
+        return result;
+    }
+
+    /** Byte cursor over a placement file, decoding one field at a time.
+     * Fields: The stream and its buffer, the current line number, the last delimiter read and the number of digits
+     * of the last field. */
+    private static final class PlacementParser {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+        int line;
+        int last;
+        int length;
+
+        PlacementParser(InputStream in) {
+            this.in = in;
+        }
+
+        private int peek() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position];
+        }
+
+        private int read() throws IOException {
+            int b = peek();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        /** Skips blank lines.
+         * Output: true if a placement line starts here, false at the end of the file. */
+        boolean nextLine() throws IOException {
+            while (true) {
+                int b = peek();
+                if (b < 0) {
+                    return false;
+                }
+                if (b == '\n') {
+                    line++;
+                } else if (b != '\r' && b != ' ' && b != '\t') {
+                    line++;
+                    return true;
+                }
+                position++;
+            }
+        }
+
+        /** Reads a decimal number and its delimiter (a line end, "\r\n" or the end of the file for '\n').
+         * Input: The expected delimiter.
+         * Output: The number. */
+        int number(int delimiter) throws IOException {
+            return number(delimiter, delimiter);
+        }
+
+        /** Same, with two accepted delimiters (last tells which one was found). */
+        int number(int delimiter, int alternative) throws IOException {
+            int value = 0;
+            length = 0;
+            int b;
+            while ((b = read()) >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                length++;
+            }
+            return end(value, b, b == alternative ? alternative : delimiter);
+        }
+
+        /** Reads a hexadecimal color and its delimiter.
+         * Input: The expected delimiter.
+         * Output: The packed value. */
+        int hex(int delimiter) throws IOException {
+            int value = 0;
+            length = 0;
+            int b;
+            while (true) {
+                b = read();
+                int digit = Character.digit(b, 16);
+                if (b < 0 || digit < 0) {
+                    break;
+                }
+                value = value << 4 | digit;
+                length++;
+            }
+            return end(value, b, delimiter);
+        }
+
+        /** Reads raw text up to a delimiter (the hole pattern of the rare bricks with holes). */
+        String text(int delimiter) throws IOException {
+            StringBuilder text = new StringBuilder();
+            int b;
+            while ((b = read()) >= 0 && b != delimiter && b != '\n') {
+                text.append((char) b);
+            }
+            return end(text.toString(), b, delimiter);
+        }
+
+        private int end(int value, int b, int delimiter) throws IOException {
+            if (length == 0) {
+                throw new IOException("Invalid placement at line " + line + ": number expected");
+            }
+            end("", b, delimiter);
+            return value;
+        }
+
+        private String end(String value, int b, int delimiter) throws IOException {
+            if (delimiter == '\n' && b == '\r' && peek() == '\n') {
+                b = read();
+            }
+            if (b != delimiter && !(delimiter == '\n' && b < 0)) {
+                throw new IOException("Invalid placement at line " + line + ": '" + (char) delimiter + "' expected");
+            }
+            last = b;
+            return value;
+        }
+    }
+
+    /** Number of bricks placed. */
+    public int count() {
+        return count;
+    }
+
+    public int x(int i) {
+        return xs[i];
+    }
+
+    public int y(int i) {
+        return ys[i];
+    }
+
+    /** Width in studs of the brick at a placement index. */
+    public int width(int i) {
+        return widths[i];
+    }
+
+    /** Height in studs of the brick at a placement index. */
+    public int height(int i) {
+        return heights[i];
+    }
+
+    /** Packed RGB color of the brick at a placement index. */
+    public int color(int i) {
+        return colors[i];
+    }
+
+    /** Catalog index of the brick at a placement index, -1 without a catalog. */
+    public int entry(int i) {
+        return entries[i];
+    }
+
+    /** Input: A placement index.
+     * Output: The catalog entry of the brick placed there. */
+    public CatalogEntry brick(int i) {
+        if (catalog == null) {
+            throw new IllegalStateException("placements were read without a catalog");
+        }
+        return catalog.entry(entries[i]);
+    }
+
+    /** The catalog snapshot (with its stock) this result was computed against, null if read without one. */
+    public CatalogSnapshot catalog() {
+        return catalog;
+    }
+
+    /** Width of the tiled area in studs (right edge of the rightmost brick). */
+    public int studsWide() {
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, xs[i] + widths[i]);
+        }
+        return max;
+    }
+
+    /** Height of the tiled area in studs (bottom edge of the lowest brick). */
+    public int studsHigh() {
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, ys[i] + heights[i]);
+        }
+        return max;
+    }
+
+    /** Number of studs covered, i.e. the tiled area if no bricks overlap. */
+    public long studs() {
+        long studs = 0;
+        for (int i = 0; i < count; i++) {
+            studs += (long) widths[i] * heights[i];
+        }
+        return studs;
+    }
+
+    /** How many bricks of each catalog entry the placements use, computed once.
+     * Output: One count per entry (shared array, do not modify). */
+    synchronized int[] usage() {
+        if (usage == null) {
+            usage = new int[catalog == null ? 0 : catalog.size()];
+            for (int i = 0; i < count; i++) {
+                if (entries[i] >= 0) {
+                    usage[entries[i]]++;
+                }
+            }
+        }
+        return usage;
+    }
+
+    /** Same placements, another catalog snapshot and invoice (see IncrementalTiler). */
+    TilingResult withStock(CatalogSnapshot current, int[] currentMissing) {
+        TilingResult result = new TilingResult(current, xs, ys, widths, heights, colors, entries, count, currentMissing);
+        result.usage = usage();
+        return result;
+    }
+
+    /** Missing quantity of one entry. */
+    int missing(int entry) {
+        return missing[entry];
+    }
+
+    /** Total price of all the placed bricks (0 without a catalog). */
+    public double price() {
+        double price = 0;
+        for (int i = 0; i < count; i++) {
+            if (entries[i] >= 0) {
+                price += catalog.entry(entries[i]).price();
+            }
+        }
+        return price;
+    }
+
+    /** Bricks that are not in stock, in the format OrderManager.parseInvoice reads.
+     * Output: Brick name to missing quantity. */
+    public Map<String, Integer> missing() {
+        Map<String, Integer> invoice = new LinkedHashMap<>();
+        for (int i = 0; i < missing.length; i++) {
+            if (missing[i] > 0) {
+                invoice.put(catalog.entry(i).name(), missing[i]);
+            }
+        }
+        return invoice;
+    }
+
+    /** Total number of bricks to order. */
+    public int missingCount() {
+        int total = 0;
+        for (int m : missing) {
+            total += m;
+        }
+        return total;
+    }
+
+    /** Writes the placements the way LegoVisualizer reads them, one "w-h/hex,x,y" line per brick.
+     * Input: Target writer (left open).
+     * Output: void. */
+    public void writePlacements(Writer out) throws IOException {
+        StringBuilder line = new StringBuilder(32);
+        for (int i = 0; i < count; i++) {
+            line.setLength(0);
+            line.append(name(i)).append(',').append(xs[i]).append(',').append(ys[i]).append('\n');
+            out.append(line);
+        }
+    }
+
+    /** Brick name of a placement, rebuilt from its size and color when there is no catalog. */
+    private String name(int i) {
+        return entries[i] >= 0 ? catalog.entry(entries[i]).name() : widths[i] + "-" + heights[i] + "/" + String.format("%06x", colors[i]);
+    }
+
+    /** Writes the missing bricks the way OrderManager.parseInvoice reads them, one "w-h/hex,quantity" line each.
+     * Input: Target writer (left open).
+     * Output: void. */
+    public void writeInvoice(Writer out) throws IOException {
+        for (Map.Entry<String, Integer> entry : missing().entrySet()) {
+            out.append(entry.getKey()).append(',').append(String.valueOf(entry.getValue())).append('\n');
+        }
+    }
+
+    /** Writes both outputs to files, like the C tiler does.
+     * Input: Paths of the placement list and of the invoice.
+     * Output: void. */
+    public void save(Path placementsPath, Path invoicePath) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(placementsPath, StandardCharsets.US_ASCII)) {
+            writePlacements(out);
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(invoicePath, StandardCharsets.US_ASCII)) {
+            writeInvoice(out);
+        }
+    }
+}
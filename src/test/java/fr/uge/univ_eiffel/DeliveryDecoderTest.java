@@ -0,0 +1,127 @@
+package fr.uge.univ_eiffel;
+
+import com.google.gson.stream.JsonReader;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feeds delivery statuses to the streaming decoder, poll after poll.
+ */
+public class DeliveryDecoderTest
+    extends TestCase
+{
+    private final List<Brick> emitted = new ArrayList<>();
+    private final DeliveryDecoder decoder = new DeliveryDecoder(emitted::add);
+
+    public DeliveryDecoderTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DeliveryDecoderTest.class );
+    }
+
+    private DeliveryDecoder.Progress poll(String json) throws IOException
+    {
+        return decoder.decode(new JsonReader(new StringReader(json)));
+    }
+
+    public void testBuiltThenPending() throws IOException
+    {
+        DeliveryDecoder.Progress progress = poll("{\"built_blocks\":["
+                + "{\"name\":\"2-2/ffffff\",\"serial\":\"s1\",\"certificate\":\"c1\"},"
+                + "{\"name\":\"1-1/000000\",\"serial\":\"s2\",\"certificate\":\"c2\"}],"
+                + "\"pending_blocks\":{\"2-2/ffffff\":3,\"1-1/000000\":1}}");
+        assertFalse(progress.completed());
+        assertEquals(2, progress.newBricks());
+        assertEquals(2, progress.builtBricks());
+        assertEquals(Map.of("2-2/ffffff", 3, "1-1/000000", 1), progress.pendingBricks());
+        assertEquals(List.of(new Brick("2-2/ffffff", "s1", "c1"), new Brick("1-1/000000", "s2", "c2")), emitted);
+    }
+
+    public void testPendingThenBuiltAndFieldsInAnyOrder() throws IOException
+    {
+        DeliveryDecoder.Progress progress = poll("{\"pending_blocks\":{},\"built_blocks\":["
+                + "{\"certificate\":\"c1\",\"serial\":\"s1\",\"name\":\"2-2/ffffff\"},"
+                + "{\"serial\":\"s2\",\"name\":\"1-1/000000\",\"certificate\":\"c2\"}]}");
+        assertTrue(progress.completed());
+        assertEquals(2, progress.newBricks());
+        assertEquals(List.of(new Brick("2-2/ffffff", "s1", "c1"), new Brick("1-1/000000", "s2", "c2")), emitted);
+    }
+
+    public void testUnknownFieldsAreSkipped() throws IOException
+    {
+        DeliveryDecoder.Progress progress = poll("{\"id\":\"Q1\",\"meta\":{\"a\":[1,2,{\"b\":null}]},\"built_blocks\":["
+                + "{\"name\":\"2-2/ffffff\",\"color\":{\"r\":255},\"serial\":\"s1\",\"built_at\":12,\"certificate\":\"c1\"}],"
+                + "\"eta\":[3,4],\"pending_blocks\":{\"2-2/ffffff\":1},\"done\":false}");
+        assertEquals(1, progress.newBricks());
+        assertEquals(1, progress.pendingBricks().get("2-2/ffffff").intValue());
+        assertEquals(List.of(new Brick("2-2/ffffff", "s1", "c1")), emitted);
+    }
+
+    public void testNullBuiltBlocks() throws IOException
+    {
+        DeliveryDecoder.Progress progress = poll("{\"built_blocks\":null,\"pending_blocks\":{\"1-1/000000\":5}}");
+        assertFalse(progress.completed());
+        assertEquals(0, progress.newBricks());
+        assertEquals(0, progress.builtBricks());
+        assertTrue(emitted.isEmpty());
+    }
+
+    /**
+     * Every poll lists all the bricks built so far, only the new ones are emitted.
+     */
+    public void testBrickRepeatedAcrossPolls() throws IOException
+    {
+        poll("{\"built_blocks\":[{\"name\":\"1-1/000000\",\"serial\":\"s1\",\"certificate\":\"c1\"}],"
+                + "\"pending_blocks\":{\"1-1/000000\":1}}");
+        // the known brick is skipped even though its certificate is missing this time, its serial comes first
+        DeliveryDecoder.Progress progress = poll("{\"built_blocks\":["
+                + "{\"serial\":\"s1\",\"name\":\"1-1/000000\"},"
+                + "{\"name\":\"1-1/000000\",\"serial\":\"s2\",\"certificate\":\"c2\"}],"
+                + "\"pending_blocks\":{}}");
+        assertTrue(progress.completed());
+        assertEquals(1, progress.newBricks());
+        assertEquals(2, progress.builtBricks());
+        assertEquals(2, decoder.emitted());
+        assertEquals(List.of(new Brick("1-1/000000", "s1", "c1"), new Brick("1-1/000000", "s2", "c2")), emitted);
+    }
+
+    public void testIncompleteBrickIsRejected()
+    {
+        String[] bricks = {
+            "{\"name\":\"1-1/000000\",\"serial\":\"s1\"}",
+            "{\"name\":\"1-1/000000\",\"certificate\":\"c1\"}",
+            "{\"serial\":\"s1\",\"certificate\":\"c1\"}",
+            "{\"name\":null,\"serial\":\"s1\",\"certificate\":\"c1\"}",
+        };
+        for (String brick : bricks) {
+            try {
+                poll("{\"built_blocks\":[" + brick + "],\"pending_blocks\":{}}");
+                fail(brick + " should be rejected");
+            } catch (IOException expected) {
+                // incomplete brick
+            }
+        }
+        assertTrue(emitted.isEmpty());
+    }
+
+    public void testMissingPendingBlocksIsRejected()
+    {
+        try {
+            poll("{\"built_blocks\":[]}");
+            fail("a status without pending_blocks should be rejected");
+        } catch (IOException expected) {
+            // pending_blocks is what tells whether the order is done
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package fr.uge.univ_eiffel;
+
+import com.google.gson.stream.JsonReader;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Tracks orders against a fake factory whose answers are scripted poll after poll.
+ */
+public class DeliveryTrackerTest
+    extends TestCase
+{
+    private final List<Long> polledAt = Collections.synchronizedList(new ArrayList<>());
+
+    public DeliveryTrackerTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DeliveryTrackerTest.class );
+    }
+
+    /**
+     * A delivery status listing the first built bricks and how many are still pending.
+     */
+    private static String status(int built, int pending)
+    {
+        StringBuilder json = new StringBuilder("{\"built_blocks\":[");
+        for (int i = 0; i < built; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"name\":\"1-1/000000\",\"serial\":\"s").append(i)
+                    .append("\",\"certificate\":\"c").append(i).append("\"}");
+        }
+        json.append("],\"pending_blocks\":{").append(pending == 0 ? "" : "\"1-1/000000\":" + pending).append("}}");
+        return json.toString();
+    }
+
+    /**
+     * A tracker whose n-th poll (from 0) is answered with the status the script gives, the poll times being recorded.
+     */
+    private DeliveryTracker tracker(IntFunction<String> script, Duration min, Duration max)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return new DeliveryTracker((quoteId, decoder) -> {
+            polledAt.add(System.nanoTime());
+            String json = script.apply(count.getAndIncrement());
+            if (json == null) {
+                return CompletableFuture.failedFuture(new IOException("factory down"));
+            }
+            try {
+                return CompletableFuture.completedFuture(decoder.decode(new JsonReader(new StringReader(json))));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }, min, max);
+    }
+
+    private long gap(int i)
+    {
+        return polledAt.get(i + 1) - polledAt.get(i);
+    }
+
+    /**
+     * Nothing moves: 200, 400 and 800 ms, then only what is left until the quoted end instead of 1600 ms.
+     */
+    public void testIntervalDoublesUpToTheQuotedEnd() throws Exception
+    {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(1600);
+        try (DeliveryTracker tracker = tracker(n -> n < 4 ? status(0, 10) : status(10, 0),
+                Duration.ofMillis(10), Duration.ofSeconds(10))) {
+            tracker.track("Q1", Duration.ofMillis(1600), null).get(20, TimeUnit.SECONDS);
+        }
+        assertEquals(5, polledAt.size());
+        // the first interval runs from the start, each one is jittered by up to 20%
+        polledAt.add(0, start);
+        for (int i = 0; i < 2; i++) {
+            double ratio = (double) gap(i + 1) / gap(i);
+            assertTrue("interval " + (i + 1) + " is " + ratio + " times the previous one", ratio > 1.3 && ratio < 3.2);
+        }
+        long firstPastEnd = polledAt.stream().filter(at -> at - end >= 0).findFirst().orElseThrow();
+        assertTrue("the quoted end should not be overshot by a doubled interval",
+                firstPastEnd - end < TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    /**
+     * 90 of 100 bricks built in one interval: the rest should be there long before the interval doubles.
+     */
+    public void testIntervalShrinksWhenBricksArrive() throws Exception
+    {
+        try (DeliveryTracker tracker = tracker(n -> switch (n) {
+                    case 0 -> status(0, 100);
+                    case 1 -> status(90, 10);
+                    default -> status(100, 0);
+                }, Duration.ofMillis(10), Duration.ofSeconds(10))) {
+            tracker.track("Q1", Duration.ofMillis(2400), null).get(20, TimeUnit.SECONDS);
+            assertEquals(3, polledAt.size());
+            assertTrue("the poll after the bricks arrived should come sooner", gap(1) * 3 < gap(0));
+        }
+    }
+
+    public void testGivesUpAfterMaxFailures() throws Exception
+    {
+        try (DeliveryTracker tracker = tracker(n -> null, Duration.ofMillis(1), Duration.ofMillis(5))) {
+            try {
+                tracker.track("Q1", Duration.ofMillis(10), null).get(20, TimeUnit.SECONDS);
+                fail("the order should be given up");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                assertEquals("factory down", e.getCause().getMessage());
+            }
+            assertEquals(DeliveryTracker.MAX_FAILURES, polledAt.size());
+        }
+    }
+
+    /**
+     * Every status lists all the bricks built so far, a failed poll in the middle included.
+     */
+    public void testEachBrickReachesTheListenerOnce() throws Exception
+    {
+        List<Brick> delivered = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger progress = new AtomicInteger();
+        try (DeliveryTracker tracker = tracker(n -> n == 2 ? null : status(Math.min(3 * n, 12), Math.max(0, 12 - 3 * n)),
+                Duration.ofMillis(1), Duration.ofMillis(5))) {
+            OrderManager.Delivery delivery = tracker.track("Q1", Duration.ofMillis(10), new DeliveryTracker.Listener() {
+                @Override
+                public void delivered(String quoteId, List<Brick> bricks)
+                {
+                    assertFalse(bricks.isEmpty());
+                    delivered.addAll(bricks);
+                }
+
+                @Override
+                public void progress(String quoteId, Map<String, Integer> pendingBricks)
+                {
+                    progress.incrementAndGet();
+                }
+            }).get(20, TimeUnit.SECONDS);
+
+            assertTrue(delivery.completed());
+            assertEquals(12, delivered.size());
+            HashSet<String> serials = new HashSet<>();
+            for (Brick brick : delivered) {
+                assertTrue("brick " + brick.serial() + " delivered twice", serials.add(brick.serial()));
+            }
+            assertEquals(delivered, delivery.bricks());
+            // one progress per answered poll, the failed one is retried
+            assertEquals(polledAt.size() - 1, progress.get());
+        }
+    }
+
+    public void testCenturiesLongDelayDoesNotOverflow() throws Exception
+    {
+        Duration centuries = new OrderManager.Quote("Q1", 1, Long.MAX_VALUE / 2, ChronoUnit.SECONDS).expectedDelay();
+        assertEquals(Long.MAX_VALUE, DeliveryTracker.nanos(centuries));
+        try (DeliveryTracker tracker = tracker(n -> status(1, 0), Duration.ofMillis(1), Duration.ofMillis(50))) {
+            assertEquals(1, tracker.track("Q1", centuries, null).get(20, TimeUnit.SECONDS).bricks().size());
+        }
+    }
+}
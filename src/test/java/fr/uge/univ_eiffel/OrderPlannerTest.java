@@ -0,0 +1,144 @@
+package fr.uge.univ_eiffel;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Cuts invoices with the shard policies and compares plans with the cost functions.
+ */
+public class OrderPlannerTest
+    extends TestCase
+{
+    public OrderPlannerTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( OrderPlannerTest.class );
+    }
+
+    /**
+     * Some kinds far over the shard limit, most of them a handful of bricks.
+     */
+    private static Map<String, Integer> invoice(int kinds, long seed)
+    {
+        Random random = new Random(seed);
+        Map<String, Integer> invoice = new HashMap<>();
+        for (int k = 0; k < kinds; k++) {
+            invoice.put(String.format("1-1/%06x", k), random.nextInt(10) == 0 ? 500 + random.nextInt(3000) : 1 + random.nextInt(40));
+        }
+        return invoice;
+    }
+
+    private static long total(Map<String, Integer> bricks)
+    {
+        return bricks.values().stream().mapToLong(Integer::longValue).sum();
+    }
+
+    /**
+     * Every brick of the invoice is in exactly one shard: the quantities of a kind add up over the shards.
+     */
+    private static void assertSameBricks(Map<String, Integer> invoice, List<HashMap<String, Integer>> shards)
+    {
+        Map<String, Integer> merged = new HashMap<>();
+        for (HashMap<String, Integer> shard : shards) {
+            assertFalse("empty shard", shard.isEmpty());
+            shard.forEach((name, count) -> {
+                assertTrue(name + " has " + count + " bricks in a shard", count > 0);
+                merged.merge(name, count, Integer::sum);
+            });
+        }
+        assertEquals(invoice, merged);
+    }
+
+    public void testByBrickCount()
+    {
+        for (int limit : new int[] { 1, 7, 100, 1000, 1_000_000 }) {
+            for (long seed = 0; seed < 5; seed++) {
+                Map<String, Integer> invoice = invoice(limit == 1 ? 5 : 60, seed);
+                List<HashMap<String, Integer>> shards = OrderPlanner.ShardPolicy.byBrickCount(limit).shard(invoice);
+                assertSameBricks(invoice, shards);
+                assertEquals("shards for " + total(invoice) + " bricks by " + limit,
+                        (total(invoice) + limit - 1) / limit, shards.size());
+                for (HashMap<String, Integer> shard : shards) {
+                    assertTrue("a shard of " + total(shard) + " bricks over " + limit, total(shard) <= limit);
+                }
+            }
+        }
+    }
+
+    public void testByBrickCountSplitsAQuantityEvenly()
+    {
+        List<HashMap<String, Integer>> shards = OrderPlanner.ShardPolicy.byBrickCount(1000).shard(Map.of("2-2/ffffff", 2500));
+        List<Integer> sizes = new ArrayList<>();
+        for (HashMap<String, Integer> shard : shards) {
+            sizes.add(shard.get("2-2/ffffff"));
+        }
+        assertEquals(List.of(834, 834, 832), sizes);
+    }
+
+    public void testByBrickType()
+    {
+        for (int kinds : new int[] { 1, 3, 10, 100 }) {
+            Map<String, Integer> invoice = invoice(37, kinds);
+            List<HashMap<String, Integer>> shards = OrderPlanner.ShardPolicy.byBrickType(kinds).shard(invoice);
+            assertSameBricks(invoice, shards);
+            assertEquals((37 + kinds - 1) / kinds, shards.size());
+            for (HashMap<String, Integer> shard : shards) {
+                assertTrue(shard.size() + " kinds in a shard", shard.size() <= kinds);
+            }
+        }
+    }
+
+    public void testPolicyArgumentsAreChecked()
+    {
+        try {
+            OrderPlanner.ShardPolicy.byBrickCount(0);
+            fail("a shard of no brick should be rejected");
+        } catch (IllegalArgumentException expected) {
+            // nothing could ever be ordered
+        }
+        try {
+            OrderPlanner.ShardPolicy.byBrickType(0);
+            fail("a shard of no kind should be rejected");
+        } catch (IllegalArgumentException expected) {
+            // nothing could ever be ordered
+        }
+    }
+
+    private static OrderPlanner.Plan plan(int shards, double price, long delaySeconds)
+    {
+        List<HashMap<String, Integer>> parts = new ArrayList<>();
+        List<OrderManager.Quote> quotes = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            parts.add(new HashMap<>(Map.of("1-1/000000", 1)));
+            quotes.add(new OrderManager.Quote("Q" + i, price / shards, delaySeconds, ChronoUnit.SECONDS));
+        }
+        return new OrderPlanner.Plan(parts, quotes);
+    }
+
+    /**
+     * Five shards built at the same time: 2 more credits for 7 seconds less.
+     */
+    public void testDefaultCostRewardsParallelShards()
+    {
+        OrderPlanner.Plan whole = plan(1, 47, 9);
+        OrderPlanner.Plan sharded = plan(5, 49, 2);
+        var cost = OrderPlanner.priceAndDelay(OrderPlanner.DEFAULT_DELAY_WEIGHT);
+        assertTrue(cost.applyAsDouble(sharded) < cost.applyAsDouble(whole));
+
+        // summing the delays, five shards wait as long as one order
+        var summed = OrderPlanner.priceAndTotalDelay(OrderPlanner.DEFAULT_DELAY_WEIGHT);
+        assertTrue(summed.applyAsDouble(whole) < summed.applyAsDouble(sharded));
+    }
+}
@@ -0,0 +1,127 @@
+package fr.uge.univ_eiffel.image_processing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Writes images with the streaming encoder and reads them back with ImageIO.
+ */
+public class PngStreamWriterTest
+    extends TestCase
+{
+    public PngStreamWriterTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PngStreamWriterTest.class );
+    }
+
+    /**
+     * Noisy rows (no filter helps), gradient rows (Sub wins) and repeated rows (Up wins), with all kinds of alpha.
+     */
+    private static int[] pixels(int width, int height, long seed)
+    {
+        Random random = new Random(seed);
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel;
+                switch (y % 3) {
+                    case 0 -> pixel = random.nextInt();
+                    case 1 -> pixel = 0xFF000000 | (x & 0xFF) << 16 | (y & 0xFF) << 8 | (x + y) & 0xFF;
+                    default -> pixel = argb[(y - 1) * width + x];
+                }
+                argb[y * width + x] = pixel;
+            }
+        }
+        return argb;
+    }
+
+    private static byte[] encode(int[] argb, int width, int height) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PngStreamWriter png = new PngStreamWriter(bytes, width, height)) {
+            for (int y = 0; y < height; y++) {
+                png.row(argb, y * width);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int count(byte[] data, String chunkType)
+    {
+        byte[] type = chunkType.getBytes(StandardCharsets.US_ASCII);
+        int found = 0;
+        for (int i = 0; i + type.length <= data.length; i++) {
+            int k = 0;
+            while (k < type.length && data[i + k] == type[k]) {
+                k++;
+            }
+            if (k == type.length) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static void assertRoundTrip(int width, int height, long seed) throws IOException
+    {
+        int[] argb = pixels(width, height, seed);
+        byte[] png = encode(argb, width, height);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull("ImageIO could not read the PNG", read);
+        assertEquals(width, read.getWidth());
+        assertEquals(height, read.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals("pixel (" + x + "," + y + ") of " + width + "x" + height, argb[y * width + x], read.getRGB(x, y));
+            }
+        }
+    }
+
+    public void testSmallImagesRoundTrip() throws IOException
+    {
+        int[][] sizes = { {1, 1}, {3, 2}, {7, 5}, {64, 9} };
+        for (int[] size : sizes) {
+            assertRoundTrip(size[0], size[1], size[0] * 100L + size[1]);
+        }
+    }
+
+    public void testWidthNotMultipleOfFour() throws IOException
+    {
+        assertRoundTrip(301, 17, 3);
+    }
+
+    public void testSeveralIdatChunks() throws IOException
+    {
+        int width = 257;
+        int height = 300;
+        byte[] png = encode(pixels(width, height, 4), width, height);
+        assertTrue("the image should span several IDAT chunks", count(png, "IDAT") > 1);
+        assertRoundTrip(width, height, 4);
+    }
+
+    public void testRowCountIsChecked() throws IOException
+    {
+        PngStreamWriter png = new PngStreamWriter(new ByteArrayOutputStream(), 4, 2);
+        png.row(new int[4], 0);
+        try {
+            png.close();
+            fail("a missing row should be reported");
+        } catch (IOException expected) {
+            // only one of the two rows was written
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package fr.uge.univ_eiffel.image_processing;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Cuts a non power of two image into a pyramid and checks the tiles on disk.
+ */
+public class TilePyramidTest
+    extends TestCase
+{
+    private static final int WIDTH = 601;
+    private static final int HEIGHT = 299;
+
+    private Path directory;
+
+    public TilePyramidTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TilePyramidTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("pyramid");
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private int[] cut() throws IOException
+    {
+        Random random = new Random(5);
+        int[] argb = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        try (TilePyramid pyramid = new TilePyramid(directory, WIDTH, HEIGHT)) {
+            assertEquals(2, pyramid.maxZoom());
+            for (int y = 0; y < HEIGHT; y++) {
+                pyramid.row(argb, y * WIDTH);
+            }
+        }
+        return argb;
+    }
+
+    private BufferedImage tile(int z, int x, int y) throws IOException
+    {
+        Path file = directory.resolve(z + "/" + x + "/" + y + ".png");
+        assertTrue("missing tile " + z + "/" + x + "/" + y, Files.exists(file));
+        return ImageIO.read(file.toFile());
+    }
+
+    /**
+     * 601x299 at zoom 2, 301x150 at zoom 1 and 151x75 at zoom 0, the border tiles holding what is left.
+     */
+    public void testTileCountAndBorderSizes() throws IOException
+    {
+        cut();
+        int[][][] expected = {
+            { {151}, {75} },
+            { {256, 45}, {150} },
+            { {256, 256, 89}, {256, 43} },
+        };
+        int tiles = 0;
+        for (int z = 0; z < expected.length; z++) {
+            int[] widths = expected[z][0];
+            int[] heights = expected[z][1];
+            for (int x = 0; x < widths.length; x++) {
+                for (int y = 0; y < heights.length; y++) {
+                    BufferedImage tile = tile(z, x, y);
+                    assertEquals("width of " + z + "/" + x + "/" + y, widths[x], tile.getWidth());
+                    assertEquals("height of " + z + "/" + x + "/" + y, heights[y], tile.getHeight());
+                    tiles++;
+                }
+            }
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            assertEquals(tiles, files.filter(file -> file.toString().endsWith(".png")).count());
+        }
+        String descriptor = Files.readString(directory.resolve("pyramid.json"));
+        assertTrue(descriptor, descriptor.contains("\"width\":601") && descriptor.contains("\"maxZoom\":2"));
+    }
+
+    public void testTilesHoldTheImage() throws IOException
+    {
+        int[] argb = cut();
+        // the bottom right tile of the full level
+        BufferedImage corner = tile(2, 2, 1);
+        for (int y = 0; y < corner.getHeight(); y++) {
+            for (int x = 0; x < corner.getWidth(); x++) {
+                assertEquals(argb[(256 + y) * WIDTH + 512 + x], corner.getRGB(x, y));
+            }
+        }
+        // one level up, every pixel is the rounded mean of a 2x2 block
+        BufferedImage half = tile(1, 0, 0);
+        for (int[] at : new int[][] { {0, 0}, {17, 33}, {255, 149} }) {
+            int x = at[0] * 2, y = at[1] * 2;
+            int expected = 0xFF000000;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int sum = 0;
+                for (int[] d : new int[][] { {0, 0}, {1, 0}, {0, 1}, {1, 1} }) {
+                    int sy = Math.min(y + d[1], HEIGHT - 1);
+                    sum += argb[sy * WIDTH + x + d[0]] >> shift & 0xFF;
+                }
+                expected |= (sum * 255 + 510) / 1020 << shift;
+            }
+            assertEquals("pixel " + at[0] + "," + at[1] + " of zoom 1", expected, half.getRGB(at[0], at[1]));
+        }
+    }
+}
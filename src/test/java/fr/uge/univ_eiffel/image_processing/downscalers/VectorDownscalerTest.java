@@ -0,0 +1,85 @@
+package fr.uge.univ_eiffel.image_processing.downscalers;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Checks the SIMD downscalers against the scalar ones.
+ */
+public class VectorDownscalerTest
+    extends TestCase
+{
+    private static final int[][] SIZES = { {64, 48}, {37, 23}, {7, 5}, {150, 90} };
+
+    public VectorDownscalerTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( VectorDownscalerTest.class );
+    }
+
+    private static BufferedImage randomImage(int width, int height, int type, long seed)
+    {
+        Random random = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Every channel of every pixel must be within +/-1 of the scalar result.
+     */
+    private static void assertEquivalent(Downscaler scalar, Downscaler vector, BufferedImage source)
+    {
+        for (int[] size : SIZES) {
+            BufferedImage expected = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_ARGB);
+            BufferedImage actual = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_ARGB);
+            scalar.downscale(source, expected);
+            vector.downscale(source, actual);
+
+            for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++) {
+                    int e = expected.getRGB(x, y);
+                    int a = actual.getRGB(x, y);
+                    for (int shift = 0; shift <= 24; shift += 8) {
+                        int diff = Math.abs(((e >> shift) & 0xFF) - ((a >> shift) & 0xFF));
+                        assertTrue("pixel (" + x + "," + y + ") differs by " + diff, diff <= 1);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testFallsBackWithoutModule()
+    {
+        if (!VectorSupport.isAvailable()) {
+            assertTrue( VectorSupport.bilinear() instanceof BilinearInterpolator );
+            assertTrue( VectorSupport.bicubic() instanceof BicubicInterpolator );
+        }
+    }
+
+    public void testBilinearMatchesScalar()
+    {
+        for (int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB }) {
+            assertEquivalent(new BilinearInterpolator(), VectorSupport.bilinear(), randomImage(101, 67, type, 1));
+        }
+    }
+
+    public void testBicubicMatchesScalar()
+    {
+        for (int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB }) {
+            assertEquivalent(new BicubicInterpolator(), VectorSupport.bicubic(), randomImage(101, 67, type, 2));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package fr.uge.univ_eiffel.image_processing.palette;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that the parallel ditherers give exactly the serial result.
+ */
+public class DithererTest
+    extends TestCase
+{
+    private static final int[] PARALLELISMS = { 2, 3, 8 };
+
+    private static final PaletteLut LUT = PaletteLut.build(
+            Palette.of(List.of("000000", "ffffff", "c91a09", "0055bf", "237841", "f2cd37", "a0a5a9", "6c6e68")),
+            ColorDistance.CIELAB, 5);
+
+    public DithererTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DithererTest.class );
+    }
+
+    private static BufferedImage randomImage(int width, int height, long seed)
+    {
+        Random random = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static BufferedImage gradient(int width, int height)
+    {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / (width - 1);
+                int g = y * 255 / (height - 1);
+                img.setRGB(x, y, r << 16 | g << 8 | (255 - r));
+            }
+        }
+        return img;
+    }
+
+    private static BufferedImage copy(BufferedImage img)
+    {
+        BufferedImage copy = new BufferedImage(img.getWidth(), img.getHeight(), img.getType());
+        copy.setData(img.getData());
+        return copy;
+    }
+
+    private static void assertSameImage(String label, BufferedImage expected, BufferedImage actual)
+    {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(label + " pixel (" + x + "," + y + ")", expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * The wavefront must reproduce the serial scan bit for bit, whatever the number of workers.
+     */
+    public void testErrorDiffusionParallelMatchesSerial()
+    {
+        for (ErrorDiffusionDitherer.Kernel kernel : ErrorDiffusionDitherer.Kernel.values()) {
+            for (int[] size : new int[][] { {97, 61}, {5, 40}, {64, 3} }) {
+                BufferedImage source = randomImage(size[0], size[1], size[0] * 31L + size[1]);
+                BufferedImage expected;
+                try (ErrorDiffusionDitherer serial = new ErrorDiffusionDitherer(kernel, 1)) {
+                    expected = serial.dither(copy(source), LUT);
+                }
+                for (int parallelism : PARALLELISMS) {
+                    try (ErrorDiffusionDitherer parallel = new ErrorDiffusionDitherer(kernel, parallelism)) {
+                        assertSameImage(kernel + " x" + parallelism, expected, parallel.dither(copy(source), LUT));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Ordered dithering runs its rows on whatever pool calls it, the result must not depend on it.
+     */
+    public void testOrderedParallelMatchesSerial() throws Exception
+    {
+        BufferedImage source = gradient(203, 77);
+        OrderedDitherer ditherer = new OrderedDitherer();
+        BufferedImage expected = ditherOn(1, ditherer, source);
+        for (int parallelism : PARALLELISMS) {
+            assertSameImage("ordered x" + parallelism, expected, ditherOn(parallelism, ditherer, source));
+        }
+    }
+
+    private static BufferedImage ditherOn(int parallelism, OrderedDitherer ditherer, BufferedImage source) throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> ditherer.dither(copy(source), LUT)).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
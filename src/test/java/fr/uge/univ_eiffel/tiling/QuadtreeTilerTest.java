@@ -0,0 +1,172 @@
+package fr.uge.univ_eiffel.tiling;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that concurrent regions and jobs share the stock without ever handing out the same brick twice.
+ */
+public class QuadtreeTilerTest
+    extends TestCase
+{
+    private static final String[] COLORS = { "000000", "ffffff", "c91a09", "0055bf", "237841" };
+
+    public QuadtreeTilerTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( QuadtreeTilerTest.class );
+    }
+
+    /**
+     * Solid squares up to 8x8 plus a few rectangles and a brick with holes, with stocks small enough to run out.
+     */
+    private static CatalogSnapshot catalog()
+    {
+        List<CatalogEntry> rows = new ArrayList<>();
+        int[][] sizes = { {1, 1}, {2, 2}, {4, 4}, {8, 8}, {2, 1}, {1, 2}, {4, 2} };
+        for (int s = 0; s < sizes.length; s++) {
+            for (int c = 0; c < COLORS.length; c++) {
+                int rgb = Integer.parseInt(COLORS[c], 16);
+                rows.add(new CatalogEntry(sizes[s][0], sizes[s][1], "-1", COLORS[c], rgb, 0.1 * (s + 1), (s * 7 + c * 13) % 40));
+            }
+        }
+        rows.add(new CatalogEntry(2, 2, "1", "ffffff", 0xffffff, 0.5, 10));
+        return CatalogSnapshot.of(rows);
+    }
+
+    /**
+     * Blocks of flat color with some noise, so every size of brick gets used.
+     */
+    private static PixelMatrix matrix(int width, int height, long seed)
+    {
+        Random random = new Random(seed);
+        int[] rgb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int block = (x / 6) * 31 + (y / 5) * 17;
+                int base = Integer.parseInt(COLORS[block % COLORS.length], 16);
+                rgb[y * width + x] = random.nextInt(10) == 0 ? random.nextInt(0x1000000) : base;
+            }
+        }
+        return new PixelMatrix(width, height, rgb);
+    }
+
+    private static void assertSamePlacements(TilingResult expected, TilingResult actual)
+    {
+        assertEquals(expected.count(), actual.count());
+        for (int i = 0; i < expected.count(); i++) {
+            assertEquals("x of " + i, expected.x(i), actual.x(i));
+            assertEquals("y of " + i, expected.y(i), actual.y(i));
+            assertEquals("entry of " + i, expected.entry(i), actual.entry(i));
+        }
+    }
+
+    public void testParallelMatchesSequential() throws Exception
+    {
+        CatalogSnapshot catalog = catalog();
+        PixelMatrix matrix = matrix(203, 131, 1);
+        TilingResult sequential = new QuadtreeTiler(300).tile(matrix, catalog);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StockPool stock = StockPool.of(catalog);
+            TilingResult parallel = new QuadtreeTiler(300).tileParallel(matrix, catalog, stock, pool);
+            assertSamePlacements(sequential, parallel);
+
+            int[] usage = parallel.usage();
+            int ordered = 0;
+            for (int i = 0; i < catalog.size(); i++) {
+                int inStock = catalog.entry(i).stock();
+                int taken = inStock - stock.remaining(i);
+                assertTrue("entry " + i + " went negative", stock.remaining(i) >= 0);
+                assertEquals("missing + used of entry " + i, usage[i], parallel.missing(i) + taken);
+                assertEquals("missing of entry " + i, sequential.missing(i), parallel.missing(i));
+                ordered += parallel.missing(i);
+            }
+            assertTrue("the stock should run out for this test to mean anything", ordered > 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Several jobs tiling at once from one pool: together they never take more than the stock.
+     */
+    public void testConcurrentJobsShareTheStock() throws Exception
+    {
+        CatalogSnapshot catalog = catalog();
+        StockPool stock = StockPool.of(catalog);
+        int jobs = 6;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ExecutorService callers = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Callable<TilingResult>> tasks = new ArrayList<>();
+            for (int j = 0; j < jobs; j++) {
+                PixelMatrix matrix = matrix(97 + j, 61, j);
+                tasks.add(() -> new QuadtreeTiler(300).tileParallel(matrix, catalog, stock, pool));
+            }
+            int[] used = new int[catalog.size()];
+            int[] missing = new int[catalog.size()];
+            for (Future<TilingResult> job : callers.invokeAll(tasks)) {
+                TilingResult result = job.get();
+                for (int i = 0; i < catalog.size(); i++) {
+                    used[i] += result.usage()[i];
+                    missing[i] += result.missing(i);
+                }
+            }
+            for (int i = 0; i < catalog.size(); i++) {
+                int inStock = catalog.entry(i).stock();
+                int taken = inStock - stock.remaining(i);
+                assertTrue("entry " + i + " went negative", stock.remaining(i) >= 0);
+                assertEquals("missing + used of entry " + i, used[i], missing[i] + taken);
+                assertEquals("taken of entry " + i, Math.min(inStock, used[i]), taken);
+            }
+        } finally {
+            callers.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    public void testLastUnitIsTakenOnce() throws Exception
+    {
+        CatalogSnapshot catalog = CatalogSnapshot.of(List.of(new CatalogEntry(1, 1, "-1", "000000", 0, 0.1, 1000)));
+        StockPool stock = StockPool.of(catalog);
+        AtomicInteger granted = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> takers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                takers.add(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        if (stock.take(0)) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> taker : threads.invokeAll(takers)) {
+                taker.get();
+            }
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(1000, granted.get());
+        assertEquals(0, stock.remaining(0));
+    }
+}
@@ -0,0 +1,132 @@
+package fr.uge.univ_eiffel.tiling;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads placement files with the byte level parser and checks every decoded field.
+ */
+public class TilingResultTest
+    extends TestCase
+{
+    // blank lines, a CRLF line, an uppercase color and no final newline on purpose
+    private static final String PLACEMENTS = "1-1/000000,0,0\n"
+            + "1-1/000000,1,0\n"
+            + "2-2/ffffff,2,0\r\n"
+            + "\n"
+            + "2-4/C91A09,0,10\n"
+            + "2-2-1234/ffffff,30,7\n"
+            + "1-1/000000,123,4567";
+
+    private static final int[] XS = { 0, 1, 2, 0, 30, 123 };
+    private static final int[] YS = { 0, 0, 0, 10, 7, 4567 };
+    private static final int[] WIDTHS = { 1, 1, 2, 2, 2, 1 };
+    private static final int[] HEIGHTS = { 1, 1, 2, 4, 2, 1 };
+    private static final int[] COLORS = { 0x000000, 0x000000, 0xffffff, 0xc91a09, 0xffffff, 0x000000 };
+
+    public TilingResultTest(String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TilingResultTest.class );
+    }
+
+    private static CatalogSnapshot catalog()
+    {
+        return CatalogSnapshot.of(List.of(
+                new CatalogEntry(1, 1, "-1", "ffffff", 0xffffff, 0.05, 10),
+                new CatalogEntry(1, 1, "-1", "000000", 0x000000, 0.05, 1),
+                new CatalogEntry(2, 2, "-1", "ffffff", 0xffffff, 0.2, 5),
+                new CatalogEntry(2, 4, "-1", "c91a09", 0xc91a09, 0.4, 0),
+                new CatalogEntry(2, 2, "1234", "ffffff", 0xffffff, 0.3, 1)));
+    }
+
+    private static TilingResult parse(String placements, CatalogSnapshot catalog) throws IOException
+    {
+        return TilingResult.parse(new ByteArrayInputStream(placements.getBytes(StandardCharsets.US_ASCII)), catalog);
+    }
+
+    private static void assertGeometry(TilingResult result)
+    {
+        assertEquals(XS.length, result.count());
+        for (int i = 0; i < XS.length; i++) {
+            assertEquals("x of " + i, XS[i], result.x(i));
+            assertEquals("y of " + i, YS[i], result.y(i));
+            assertEquals("width of " + i, WIDTHS[i], result.width(i));
+            assertEquals("height of " + i, HEIGHTS[i], result.height(i));
+            assertEquals("color of " + i, COLORS[i], result.color(i));
+        }
+    }
+
+    public void testParseWithCatalog() throws IOException
+    {
+        CatalogSnapshot catalog = catalog();
+        TilingResult result = parse(PLACEMENTS, catalog);
+        assertGeometry(result);
+
+        String[] names = { "1-1/000000", "1-1/000000", "2-2/ffffff", "2-4/c91a09", "2-2-1234/ffffff", "1-1/000000" };
+        for (int i = 0; i < names.length; i++) {
+            assertEquals("entry of " + i, catalog.indexOf(names[i]), result.entry(i));
+            assertEquals("brick of " + i, names[i], result.brick(i).name());
+        }
+        // 3 black 1x1 for 1 in stock, 1 red 2x4 for none, the brick with holes is in stock
+        assertEquals(Map.of("1-1/000000", 2, "2-4/c91a09", 1), result.missing());
+        assertEquals(3, result.missingCount());
+    }
+
+    public void testParseWithoutCatalog() throws IOException
+    {
+        TilingResult result = parse(PLACEMENTS, null);
+        assertGeometry(result);
+        for (int i = 0; i < result.count(); i++) {
+            assertEquals("entry of " + i, -1, result.entry(i));
+        }
+        assertEquals(0, result.missingCount());
+    }
+
+    public void testWrittenPlacementsReadBack() throws IOException
+    {
+        CatalogSnapshot catalog = catalog();
+        TilingResult result = parse(PLACEMENTS, catalog);
+        StringWriter written = new StringWriter();
+        result.writePlacements(written);
+        TilingResult again = parse(written.toString(), catalog);
+        assertGeometry(again);
+        for (int i = 0; i < result.count(); i++) {
+            assertEquals("entry of " + i, result.entry(i), again.entry(i));
+        }
+    }
+
+    public void testUnknownBrickIsRejected()
+    {
+        try {
+            parse("1-1/000000,0,0\n3-3/000000,1,0\n", catalog());
+            fail("a brick missing from the catalog should be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+        }
+    }
+
+    public void testMalformedLineIsRejected()
+    {
+        for (String bad : new String[] { "1-1/000000,0\n", "1x1/000000,0,0\n", "1-1/000000,,0\n", "1-1/zz,0,0\n" }) {
+            try {
+                parse(bad, null);
+                fail("'" + bad.trim() + "' should be rejected");
+            } catch (IOException expected) {
+                // reported with its line number
+            }
+        }
+    }
+}